@@ -0,0 +1,206 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import resto.NamedThreadFactory;
+import resto.db.Guid;
+import resto.push.configuration.PushSubscriberConfiguration;
+import resto.push.configuration.PushSubscriptionEntity;
+import resto.push.delivery.HostConcurrencyLimiter;
+import resto.push.delivery.PushDeliveryScheduler;
+import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.ChangeStatisticItem;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Данные и заглушки сервисов сервера для бенчмарков.
+ * Уведомители создаются без обращения к service locator'у, ревизии и иерархия классов задаются явно.
+ */
+public final class BenchmarkFixtures {
+
+    /**
+     * Пул расписаний. Задачи в нем в бенчмарках не выполняются: уведомители периодические и не запускаются
+     */
+    private static final ScheduledExecutorService SCHEDULED_POOL =
+        Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.multiDaemon("BenchScheduled"));
+
+    private static final PushDeliveryScheduler DELIVERY_SCHEDULER =
+        new PushDeliveryScheduler(1, NamedThreadFactory.multiDaemon("BenchImmediate"));
+
+    private static final HostConcurrencyLimiter HOST_LIMITER = new HostConcurrencyLimiter();
+
+    private static final Guid INSTANCE_ID = Guid.next();
+
+    private BenchmarkFixtures() {
+    }
+
+    @NotNull
+    public static List<String> classNames(int count) {
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add("BenchEntity" + i);
+        }
+        return result;
+    }
+
+    @NotNull
+    public static List<Guid> guids(int count) {
+        List<Guid> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(Guid.next());
+        }
+        return result;
+    }
+
+    /**
+     * Статистика одного флаша: по {@code entitiesPerClass} созданных, измененных и удаленных объектов каждого класса
+     */
+    @NotNull
+    public static ChangeStatistic flushStatistic(int revision, @NotNull List<String> classNames, int entitiesPerClass) {
+        Map<String, ChangeStatisticItem> items = new HashMap<>();
+        for (String className : classNames) {
+            ChangeStatisticItem item = new ChangeStatisticItem(className);
+            for (int i = 0; i < entitiesPerClass; i++) {
+                item.incCreated();
+                item.incUpdated();
+                item.incDeleted();
+            }
+            items.put(className, item);
+        }
+        ChangeStatistic statistic = new ChangeStatistic(revision, items);
+        long now = System.nanoTime();
+        statistic.setFlushTiming(now, now);
+        return statistic;
+    }
+
+    /**
+     * Статистика пакета подписчика с заполненными ревизиями и номером доставки
+     */
+    @NotNull
+    public static ChangeStatistic deliveryStatistic(@NotNull List<String> classNames, int entitiesPerClass) {
+        ChangeStatistic statistic = new ChangeStatistic(Guid.next(), INSTANCE_ID);
+        flushStatistic(2, classNames, entitiesPerClass).getClassStatistics().values().forEach(statistic::append);
+        statistic.setRevisionFrom(1);
+        statistic.setRevisionTo(2);
+        statistic.assignDelivery(1);
+        return statistic;
+    }
+
+    @NotNull
+    public static PushSubscriberConfiguration periodicConfiguration(@NotNull String alias) {
+        return new PushSubscriberConfiguration(alias, "http://127.0.0.1:9/" + alias, 60, 1000,
+            "application/json", Collections.emptyList(), LocalDateTime.now().plusYears(1));
+    }
+
+    /**
+     * Периодический уведомитель, подписанный на каждый {@code subscriptionStep}-й класс
+     * (при шаге 1 и меньше - на все классы)
+     */
+    @NotNull
+    public static PushSubscriberNotifier notifier(
+        @NotNull String alias,
+        @NotNull List<String> classNames,
+        int subscriptionStep
+    ) {
+        Set<String> subscriptionClasses = new HashSet<>();
+        if (subscriptionStep > 1) {
+            for (int i = 0; i < classNames.size(); i += subscriptionStep) {
+                subscriptionClasses.add(classNames.get(i));
+            }
+        }
+        return new PushSubscriberNotifier(periodicConfiguration(alias), SCHEDULED_POOL, DELIVERY_SCHEDULER,
+            HOST_LIMITER, new StubEnvironment(subscriptionClasses));
+    }
+
+    /**
+     * Заглушка сервисов сервера: фиксированные подписанные классы, эвенты и транзакции игнорируются
+     */
+    private static class StubEnvironment implements PushEnvironment {
+
+        @NotNull
+        private final Set<String> subscriptionClasses;
+
+        private StubEnvironment(@NotNull Set<String> subscriptionClasses) {
+            this.subscriptionClasses = subscriptionClasses;
+        }
+
+        @NotNull
+        @Override
+        public Guid getInstanceId() {
+            return INSTANCE_ID;
+        }
+
+        @Override
+        public int getMaxExportableRevision() {
+            return Integer.MAX_VALUE;
+        }
+
+        @NotNull
+        @Override
+        public Set<String> getSubscriptionClasses(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+            return subscriptionClasses;
+        }
+
+        @Override
+        public void invalidateClassHierarchy() {
+        }
+
+        @NotNull
+        @Override
+        public Map<String, Integer> countEntities(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public int getMaxTryAttempts() {
+            return 1;
+        }
+
+        @Override
+        public int getMaxAttemptPeriodMinutes() {
+            return 1;
+        }
+
+        @Override
+        public int getReadTimeoutMillis() {
+            return 1000;
+        }
+
+        @Override
+        public void saveEvent(@NotNull PushNotificationEvent event) {
+        }
+
+        @Override
+        public void updateEvent(@NotNull PushNotificationEvent event) {
+        }
+
+        @Override
+        public void saveStacktrace(@NotNull PushNotificationStacktrace stacktrace) {
+        }
+
+        @Override
+        public int purgeEvents(@NotNull Date before, int maxCount) {
+            return 0;
+        }
+
+        @Override
+        public int purgeStacktraces(@NotNull Date before) {
+            return 0;
+        }
+
+        @Override
+        public void runTransacted(@NotNull Runnable action) {
+            action.run();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package resto.push;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import resto.push.statistic.ChangeStatistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выгребание очереди уведомителя с фильтрацией по подписанным классам ({@code collectStatistics} без
+ * запроса ревизии из БД).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CollectStatisticsBenchmark {
+
+    /**
+     * Количество флашей в очереди
+     */
+    @Param({"1", "100", "10000"})
+    public int queuedStatistics;
+
+    @Param({"10", "200"})
+    public int classCount;
+
+    /**
+     * 1 - подписка на все классы, иначе на каждый n-й класс
+     */
+    @Param({"1", "4"})
+    public int subscriptionStep;
+
+    private PushSubscriberNotifier notifier;
+
+    private List<ChangeStatistic> flushes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> classNames = BenchmarkFixtures.classNames(classCount);
+        notifier = BenchmarkFixtures.notifier("bench", classNames, subscriptionStep);
+        flushes = new ArrayList<>(queuedStatistics);
+        for (int i = 0; i < queuedStatistics; i++) {
+            // Каждый флаш затрагивает окно из 10 классов
+            int from = i % classCount;
+            List<String> touched = new ArrayList<>();
+            for (int j = 0; j < Math.min(10, classCount); j++) {
+                touched.add(classNames.get((from + j) % classCount));
+            }
+            flushes.add(BenchmarkFixtures.flushStatistic(i + 1, touched, 3));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fillQueue() {
+        flushes.forEach(notifier::addStatistic);
+    }
+
+    @Benchmark
+    public int collect() {
+        return notifier.drainStatistics();
+    }
+}
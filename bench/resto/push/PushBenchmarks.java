@@ -0,0 +1,31 @@
+package resto.push;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Запуск всех бенчмарков push-уведомлений с профилировщиком аллокаций.
+ * Аргумент - регулярное выражение для отбора бенчмарков (по умолчанию все из {@code resto.push}).
+ */
+public final class PushBenchmarks {
+
+    private PushBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(args.length > 0 ? args[0] : "resto\\.push\\..*Benchmark")
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .warmupIterations(5)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,54 @@
+package resto.push;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import resto.push.statistic.ChangeStatistic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Раздача статистики флаша уведомителям ({@code PushNotificationManager#onCreateStatistic}).
+ * Очереди уведомителей выгребаются после каждого вызова, иначе они растут на весь прогон.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PushFanOutBenchmark {
+
+    @Param({"1", "100", "1000", "10000"})
+    public int notifierCount;
+
+    private List<PushSubscriberNotifier> notifiers;
+
+    private ChangeStatistic statistic;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> classNames = BenchmarkFixtures.classNames(20);
+        notifiers = new ArrayList<>(notifierCount);
+        for (int i = 0; i < notifierCount; i++) {
+            notifiers.add(BenchmarkFixtures.notifier("bench" + i, classNames, 1));
+        }
+        statistic = BenchmarkFixtures.flushStatistic(1, classNames, 5);
+    }
+
+    @TearDown(Level.Invocation)
+    public void drainQueues() {
+        notifiers.forEach(PushSubscriberNotifier::drainStatistics);
+    }
+
+    @Benchmark
+    public void fanOut() {
+        PushNotificationManager.dispatchStatistic(notifiers, statistic);
+    }
+}
@@ -0,0 +1,63 @@
+package resto.push.dto;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import resto.push.BenchmarkFixtures;
+import resto.push.statistic.ChangeStatistic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация тела уведомления. Как и на сервере, разметка полей берется из JAXB-аннотаций.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChangeStatisticDtoSerializationBenchmark {
+
+    @Param({"1", "50", "1000"})
+    public int classCount;
+
+    private ChangeStatistic statistic;
+
+    private ChangeStatisticDto dto;
+
+    private ObjectMapper jsonMapper;
+
+    private XmlMapper xmlMapper;
+
+    @Setup
+    public void setUp() {
+        statistic = BenchmarkFixtures.deliveryStatistic(BenchmarkFixtures.classNames(classCount), 3);
+        dto = ChangeStatisticDto.toDto(statistic);
+        jsonMapper = new ObjectMapper();
+        jsonMapper.registerModule(new JaxbAnnotationModule());
+        xmlMapper = new XmlMapper();
+        xmlMapper.registerModule(new JaxbAnnotationModule());
+    }
+
+    @Benchmark
+    public ChangeStatisticDto toDto() {
+        return ChangeStatisticDto.toDto(statistic);
+    }
+
+    @Benchmark
+    public byte[] json() throws JsonProcessingException {
+        return jsonMapper.writeValueAsBytes(dto);
+    }
+
+    @Benchmark
+    public byte[] xml() throws JsonProcessingException {
+        return xmlMapper.writeValueAsBytes(dto);
+    }
+}
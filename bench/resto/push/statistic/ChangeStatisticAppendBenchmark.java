@@ -0,0 +1,58 @@
+package resto.push.statistic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import resto.db.Guid;
+import resto.push.BenchmarkFixtures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Слияние статистик флашей в пакет ({@link ChangeStatistic#append(ChangeStatisticItem)}).
+ * Пакет создается на каждый вызов, так что в замер входит и заполнение карты классов.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChangeStatisticAppendBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int flushCount;
+
+    @Param({"10", "200"})
+    public int classCount;
+
+    private List<ChangeStatisticItem> items;
+
+    private Guid configurationId;
+
+    private Guid instanceId;
+
+    @Setup
+    public void setUp() {
+        List<String> classNames = BenchmarkFixtures.classNames(classCount);
+        items = new ArrayList<>();
+        for (int i = 0; i < flushCount; i++) {
+            items.addAll(BenchmarkFixtures.flushStatistic(i + 1, classNames, 2).getClassStatistics().values());
+        }
+        configurationId = Guid.next();
+        instanceId = Guid.next();
+    }
+
+    @Benchmark
+    public ChangeStatistic append() {
+        ChangeStatistic statistic = new ChangeStatistic(configurationId, instanceId);
+        for (ChangeStatisticItem item : items) {
+            statistic.append(item);
+        }
+        return statistic;
+    }
+}
@@ -0,0 +1,73 @@
+package resto.push.statistic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import resto.db.Guid;
+import resto.push.BenchmarkFixtures;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сборка статистики флаша в {@code FlushTaskListener}. Вместо {@code ClassResolver} и {@code FlushTask} -
+ * готовая карта id -> имя класса.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlushAggregationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int entityCount;
+
+    @Param({"5", "100"})
+    public int classCount;
+
+    private Set<Guid> createdIds;
+
+    private Set<Guid> deletedIds;
+
+    private Set<Guid> updatedIds;
+
+    private Map<Guid, String> classNames;
+
+    @Setup
+    public void setUp() {
+        List<String> names = BenchmarkFixtures.classNames(classCount);
+        List<Guid> ids = BenchmarkFixtures.guids(entityCount);
+        createdIds = new HashSet<>();
+        deletedIds = new HashSet<>();
+        updatedIds = new HashSet<>();
+        classNames = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Guid id = ids.get(i);
+            classNames.put(id, names.get(i % classCount));
+            // Типичный флаш: большая часть изменений - обновления
+            switch (i % 10) {
+                case 0:
+                    createdIds.add(id);
+                    break;
+                case 1:
+                    deletedIds.add(id);
+                    break;
+                default:
+                    updatedIds.add(id);
+            }
+        }
+    }
+
+    @Benchmark
+    public ChangeStatistic aggregate() {
+        return FlushStatisticAggregator.aggregate(1, createdIds, deletedIds, updatedIds, classNames::get);
+    }
+}
@@ -0,0 +1,119 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import resto.db.Guid;
+import resto.push.configuration.PushSubscriptionEntity;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сервисы сервера для нагрузочного теста: ревизия растет с каждым синтетическим флашем,
+ * эвенты только считаются, подписка всегда на все классы
+ */
+public class LoadTestEnvironment implements PushEnvironment {
+
+    private final Guid instanceId = Guid.next();
+
+    private final AtomicInteger revision = new AtomicInteger();
+
+    private final LongAdder savedEvents = new LongAdder();
+
+    @NotNull
+    private final LoadTestSettings settings;
+
+    public LoadTestEnvironment(@NotNull LoadTestSettings settings) {
+        this.settings = settings;
+    }
+
+    public int nextRevision() {
+        return revision.incrementAndGet();
+    }
+
+    /**
+     * Ревизия очередного флаша из трассы
+     */
+    public void publishRevision(int flushRevision) {
+        revision.accumulateAndGet(flushRevision, Math::max);
+    }
+
+    public long getSavedEvents() {
+        return savedEvents.sum();
+    }
+
+    @NotNull
+    @Override
+    public Guid getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public int getMaxExportableRevision() {
+        return revision.get();
+    }
+
+    @NotNull
+    @Override
+    public Set<String> getSubscriptionClasses(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void invalidateClassHierarchy() {
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Integer> countEntities(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int getMaxTryAttempts() {
+        return settings.getMaxTryAttempts();
+    }
+
+    @Override
+    public int getMaxAttemptPeriodMinutes() {
+        return 1;
+    }
+
+    @Override
+    public int getReadTimeoutMillis() {
+        return settings.getReadTimeoutMillis();
+    }
+
+    @Override
+    public void saveEvent(@NotNull PushNotificationEvent event) {
+        savedEvents.increment();
+    }
+
+    @Override
+    public void updateEvent(@NotNull PushNotificationEvent event) {
+        savedEvents.increment();
+    }
+
+    @Override
+    public void saveStacktrace(@NotNull PushNotificationStacktrace stacktrace) {
+    }
+
+    @Override
+    public int purgeEvents(@NotNull Date before, int maxCount) {
+        return 0;
+    }
+
+    @Override
+    public int purgeStacktraces(@NotNull Date before) {
+        return 0;
+    }
+
+    @Override
+    public void runTransacted(@NotNull Runnable action) {
+        action.run();
+    }
+}
@@ -0,0 +1,86 @@
+package resto.push;
+
+import org.jetbrains.annotations.Nullable;
+import resto.push.metrics.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Учет нагрузки со стороны подписчиков: принятые запросы, повторы и задержка от флаша до получения изменений
+ */
+public class LoadTestRecorder {
+
+    /**
+     * Момент публикации флаша по ревизии
+     */
+    private final Map<Integer, Long> publishedNanos = new ConcurrentHashMap<>();
+
+    private final Map<StubSubscriberBehavior, LongAdder> requests = new EnumMap<>(StubSubscriberBehavior.class);
+
+    private final Set<String> idempotencyKeys = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder duplicateRequests = new LongAdder();
+
+    private final LongAdder receivedBytes = new LongAdder();
+
+    private final LongAdder deliveries = new LongAdder();
+
+    /**
+     * Задержка от флаша самой старой ревизии пакета до получения пакета подписчиком
+     */
+    private final LatencyHistogram flushToDelivery = new LatencyHistogram();
+
+    public LoadTestRecorder() {
+        for (StubSubscriberBehavior behavior : StubSubscriberBehavior.values()) {
+            requests.put(behavior, new LongAdder());
+        }
+    }
+
+    public void onPublished(int revision) {
+        publishedNanos.put(revision, System.nanoTime());
+    }
+
+    public void onRequest(StubSubscriberBehavior behavior, int bytes, @Nullable String idempotencyKey) {
+        requests.get(behavior).increment();
+        receivedBytes.add(bytes);
+        if (idempotencyKey != null && !idempotencyKeys.add(idempotencyKey)) {
+            duplicateRequests.increment();
+        }
+    }
+
+    public void onDelivered(int revisionFrom, int revisionTo, long receivedNanos) {
+        deliveries.increment();
+        Long oldestFlushNanos = publishedNanos.get(revisionFrom + 1);
+        if (oldestFlushNanos != null && revisionTo > revisionFrom) {
+            flushToDelivery.record(receivedNanos - oldestFlushNanos);
+        }
+    }
+
+    public long getRequests() {
+        return requests.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    public long getRequests(StubSubscriberBehavior behavior) {
+        return requests.get(behavior).sum();
+    }
+
+    public long getDuplicateRequests() {
+        return duplicateRequests.sum();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.sum();
+    }
+
+    public long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    public LatencyHistogram getFlushToDelivery() {
+        return flushToDelivery;
+    }
+}
@@ -0,0 +1,163 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Параметры нагрузочного теста. Задаются аргументами вида {@code --name=value}, например
+ * {@code --subscribers=1000 --mix=fast:90,slow:5,timeout:5}.
+ */
+public class LoadTestSettings {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    public LoadTestSettings(@NotNull String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Argument must look like --name=value: " + arg);
+            }
+            int separator = arg.indexOf('=');
+            values.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+    }
+
+    /**
+     * Количество подписчиков
+     */
+    public int getSubscribers() {
+        return getInt("subscribers", 100);
+    }
+
+    /**
+     * Количество http-серверов (хостов), между которыми распределяются подписчики
+     */
+    public int getHosts() {
+        return getInt("hosts", 10);
+    }
+
+    /**
+     * Потоков обработки запросов на всех заглушках. Должно хватать на медленных и зависающих подписчиков.
+     */
+    public int getStubThreads() {
+        return getInt("stubThreads", 256);
+    }
+
+    public int getFlushesPerSecond() {
+        return getInt("flushesPerSecond", 20);
+    }
+
+    public int getEntitiesPerFlush() {
+        return getInt("entitiesPerFlush", 50);
+    }
+
+    public int getClassCount() {
+        return getInt("classCount", 100);
+    }
+
+    public int getDurationSec() {
+        return getInt("durationSec", 60);
+    }
+
+    /**
+     * Сколько ждать доставки накопленных изменений после остановки генерации флашей
+     */
+    public int getDrainSec() {
+        return getInt("drainSec", 15);
+    }
+
+    public int getReportSec() {
+        return getInt("reportSec", 10);
+    }
+
+    /**
+     * Период уведомлений, 0 - немедленные уведомления
+     */
+    public int getPeriodSec() {
+        return getInt("periodSec", 0);
+    }
+
+    public int getSlowMillis() {
+        return getInt("slowMillis", 300);
+    }
+
+    public int getReadTimeoutMillis() {
+        return getInt("readTimeoutMillis", 2000);
+    }
+
+    public int getConnectTimeoutMillis() {
+        return getInt("connectTimeoutMillis", 1000);
+    }
+
+    public int getFlapPeriodMillis() {
+        return getInt("flapPeriodMillis", 5000);
+    }
+
+    public int getMaxTryAttempts() {
+        return getInt("maxTryAttempts", 3);
+    }
+
+    public boolean isHedgedDelivery() {
+        return Boolean.parseBoolean(values.getOrDefault("hedged", "false"));
+    }
+
+    public boolean isAdaptiveTimeout() {
+        return Boolean.parseBoolean(values.getOrDefault("adaptiveTimeout", "false"));
+    }
+
+    /**
+     * Доли поведений подписчиков, например {@code fast:80,slow:10,timeout:2,error:3,stop:1,flapping:4}
+     */
+    @NotNull
+    public Map<StubSubscriberBehavior, Integer> getBehaviorMix() {
+        String mix = values.getOrDefault("mix", "fast:80,slow:10,timeout:2,error:3,stop:1,flapping:4");
+        Map<StubSubscriberBehavior, Integer> result = new EnumMap<>(StubSubscriberBehavior.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.split(":");
+            result.put(StubSubscriberBehavior.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return result;
+    }
+
+    /**
+     * Файл трассы флашей для воспроизведения
+     */
+    @NotNull
+    public String getTrace() {
+        String trace = values.get("trace");
+        if (trace == null) {
+            throw new IllegalArgumentException("Flush trace file is required: --trace=<file>");
+        }
+        return trace;
+    }
+
+    /**
+     * Скорость воспроизведения трассы относительно реального времени, 0 - без пауз
+     */
+    public double getSpeed() {
+        return Double.parseDouble(values.getOrDefault("speed", "0"));
+    }
+
+    /**
+     * Дожидаться завершения доставок после каждого флаша, чтобы воспроизведение не зависело от потоков доставки
+     */
+    public boolean isDeterministic() {
+        return Boolean.parseBoolean(values.getOrDefault("deterministic", "true"));
+    }
+
+    private int getInt(String name, int defaultValue) {
+        String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    @Override
+    public String toString() {
+        return "subscribers=" + getSubscribers() + ", hosts=" + getHosts() + ", mix=" + getBehaviorMix()
+               + ", flushesPerSecond=" + getFlushesPerSecond() + ", entitiesPerFlush=" + getEntitiesPerFlush()
+               + ", periodSec=" + getPeriodSec() + ", readTimeoutMillis=" + getReadTimeoutMillis()
+               + ", hedged=" + isHedgedDelivery() + ", adaptiveTimeout=" + isAdaptiveTimeout()
+               + ", durationSec=" + getDurationSec();
+    }
+}
@@ -0,0 +1,225 @@
+package resto.push;
+
+import resto.NamedThreadFactory;
+import resto.db.Guid;
+import resto.push.configuration.PushSubscriberConfiguration;
+import resto.push.metrics.LatencyHistogram;
+import resto.push.metrics.PushMetricsRegistry;
+import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.FlushStatisticAggregator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Нагрузочный тест push-уведомлений без сети и сервера.
+ * <p>
+ * Поднимает заглушки подписчиков на loopback-интерфейсе, подписывает их через {@link PushNotificationManager}
+ * и подает синтетические флаши с заданной частотой. Периодически и в конце печатает пропускную способность
+ * доставки, перцентили задержки от флаша до получения изменений подписчиком, состояние пула доставки,
+ * количество потоков и рост heap.
+ *
+ * @see LoadTestSettings параметры запуска
+ */
+public final class PushLoadTest {
+
+    private static final int ENTITY_POOL_SIZE = 100_000;
+
+    private PushLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = new LoadTestSettings(args);
+        System.out.println("Push load test: " + settings);
+
+        LoadTestRecorder recorder = new LoadTestRecorder();
+        LoadTestEnvironment environment = new LoadTestEnvironment(settings);
+        ExecutorService stubExecutor =
+            Executors.newFixedThreadPool(settings.getStubThreads(), NamedThreadFactory.multiDaemon("StubSubscriber"));
+        List<StubSubscriberServer> servers = new ArrayList<>();
+        for (int i = 0; i < settings.getHosts(); i++) {
+            StubSubscriberServer server = new StubSubscriberServer(settings, recorder, stubExecutor);
+            server.start();
+            servers.add(server);
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+
+        PushNotificationManager manager = new PushNotificationManager(environment);
+        List<StubSubscriberBehavior> behaviors = distribute(settings.getBehaviorMix(), settings.getSubscribers());
+        for (int i = 0; i < settings.getSubscribers(); i++) {
+            String alias = "stub" + i;
+            String url = servers.get(i % servers.size()).addSubscriber(alias, behaviors.get(i));
+            manager.subscribe(createConfiguration(settings, alias, url));
+        }
+
+        // Пул сущностей, из которого набираются синтетические флаши
+        List<Guid> entityIds = new ArrayList<>(ENTITY_POOL_SIZE);
+        Map<Guid, String> classNames = new HashMap<>();
+        for (int i = 0; i < ENTITY_POOL_SIZE; i++) {
+            Guid id = Guid.next();
+            entityIds.add(id);
+            classNames.put(id, "LoadTestEntity" + (i % settings.getClassCount()));
+        }
+        Random random = new Random(42);
+        ScheduledExecutorService flushPool =
+            Executors.newSingleThreadScheduledExecutor(NamedThreadFactory.multiDaemon("LoadTestFlush"));
+        long flushPeriodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, settings.getFlushesPerSecond());
+        flushPool.scheduleAtFixedRate(() -> {
+            int from = random.nextInt(ENTITY_POOL_SIZE - settings.getEntitiesPerFlush());
+            List<Guid> updated = entityIds.subList(from, from + settings.getEntitiesPerFlush());
+            int revision = environment.nextRevision();
+            recorder.onPublished(revision);
+            ChangeStatistic statistic = FlushStatisticAggregator.aggregate(revision, Collections.emptyList(),
+                Collections.emptyList(), updated, classNames::get);
+            long now = System.nanoTime();
+            statistic.setFlushTiming(now, now);
+            manager.onCreateStatistic(statistic);
+        }, 0, flushPeriodNanos, TimeUnit.NANOSECONDS);
+
+        long startNanos = System.nanoTime();
+        Report previous = new Report(recorder, startNanos);
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(settings.getDurationSec());
+        while (System.nanoTime() < endNanos) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(settings.getReportSec()));
+            previous = print("load", recorder, environment, manager, memory, threads, baselineHeap, previous);
+        }
+        flushPool.shutdownNow();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settings.getDrainSec()));
+        print("drained", recorder, environment, manager, memory, threads, baselineHeap, previous);
+        printTotals(recorder, environment, manager, startNanos, memory, baselineHeap);
+
+        manager.getNotifiers().values().forEach(notifier -> notifier.unsubscribe(true));
+        servers.forEach(StubSubscriberServer::stop);
+        stubExecutor.shutdownNow();
+        System.exit(0);
+    }
+
+    private static PushSubscriberConfiguration createConfiguration(
+        LoadTestSettings settings,
+        String alias,
+        String url
+    ) {
+        PushSubscriberConfiguration configuration = new PushSubscriberConfiguration(alias, url,
+            settings.getPeriodSec(), settings.getConnectTimeoutMillis(), "application/json",
+            Collections.emptyList(), LocalDateTime.now().plusYears(1));
+        configuration.setHedgedDelivery(settings.isHedgedDelivery());
+        configuration.setAdaptiveTimeout(settings.isAdaptiveTimeout());
+        return configuration;
+    }
+
+    /**
+     * Раскладывает поведения по подписчикам пропорционально долям, перемешивая их по хостам
+     */
+    static List<StubSubscriberBehavior> distribute(Map<StubSubscriberBehavior, Integer> mix, int count) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        List<StubSubscriberBehavior> result = new ArrayList<>(count);
+        mix.forEach((behavior, share) -> {
+            long n = Math.round((double) count * share / total);
+            for (int i = 0; i < n && result.size() < count; i++) {
+                result.add(behavior);
+            }
+        });
+        while (result.size() < count) {
+            result.add(StubSubscriberBehavior.FAST);
+        }
+        Collections.shuffle(result, new Random(7));
+        return result;
+    }
+
+    private static Report print(
+        String phase,
+        LoadTestRecorder recorder,
+        LoadTestEnvironment environment,
+        PushNotificationManager manager,
+        MemoryMXBean memory,
+        ThreadMXBean threads,
+        long baselineHeap,
+        Report previous
+    ) {
+        Report current = new Report(recorder, System.nanoTime());
+        double seconds = (current.nanos - previous.nanos) / 1e9;
+        LatencyHistogram latency = recorder.getFlushToDelivery();
+        PushMetricsRegistry metrics = manager.getMetrics();
+        Map<NotifierStatus, Long> statuses = manager.getNotifiers().values().stream()
+            .collect(Collectors.groupingBy(PushSubscriberNotifier::getStatus, Collectors.counting()));
+        System.out.printf(
+            "[%s] revision=%d deliveries/s=%.1f requests/s=%.1f duplicates=%d "
+            + "flush->delivery p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms "
+            + "workers=%d/%d queued=%d notifiers=%s events=%d "
+            + "threads=%d peak=%d heap=%dMB (+%dMB)%n",
+            phase, environment.getMaxExportableRevision(),
+            (current.deliveries - previous.deliveries) / seconds,
+            (current.requests - previous.requests) / seconds,
+            recorder.getDuplicateRequests(),
+            toMillis(latency.getValueAtPercentile(50)), toMillis(latency.getValueAtPercentile(95)),
+            toMillis(latency.getValueAtPercentile(99)), toMillis(latency.getMaxValue()),
+            metrics.getDeliveryWorkers(), metrics.getMaxDeliveryWorkers(), metrics.getQueuedDeliveries(),
+            statuses, environment.getSavedEvents(),
+            threads.getThreadCount(), threads.getPeakThreadCount(),
+            memory.getHeapMemoryUsage().getUsed() >> 20,
+            (memory.getHeapMemoryUsage().getUsed() - baselineHeap) >> 20);
+        return current;
+    }
+
+    private static void printTotals(
+        LoadTestRecorder recorder,
+        LoadTestEnvironment environment,
+        PushNotificationManager manager,
+        long startNanos,
+        MemoryMXBean memory,
+        long baselineHeap
+    ) {
+        System.gc();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Total: flushes=%d deliveries=%d (%.1f/s) requests=%d received=%dKB events=%d%n",
+            environment.getMaxExportableRevision(), recorder.getDeliveries(), recorder.getDeliveries() / seconds,
+            recorder.getRequests(), recorder.getReceivedBytes() >> 10, environment.getSavedEvents());
+        for (StubSubscriberBehavior behavior : StubSubscriberBehavior.values()) {
+            System.out.printf("  %s requests=%d%n", behavior, recorder.getRequests(behavior));
+        }
+        long lagging = manager.getMetrics().getNotifiers().stream()
+            .filter(snapshot -> snapshot.getLastRevisionTo() < environment.getMaxExportableRevision())
+            .count();
+        System.out.printf("Notifiers behind last revision: %d, retained heap after gc: +%dMB%n",
+            lagging, (memory.getHeapMemoryUsage().getUsed() - baselineHeap) >> 20);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Счетчики на момент отчета
+     */
+    private static class Report {
+
+        private final long nanos;
+
+        private final long deliveries;
+
+        private final long requests;
+
+        private Report(LoadTestRecorder recorder, long nanos) {
+            this.nanos = nanos;
+            this.deliveries = recorder.getDeliveries();
+            this.requests = recorder.getRequests();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package resto.push;
+
+import resto.NamedThreadFactory;
+import resto.push.configuration.PushSubscriberConfiguration;
+import resto.push.metrics.PushMetricsRegistry;
+import resto.push.trace.FlushTraceReader;
+import resto.push.trace.FlushTraceRecord;
+
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Воспроизведение трассы флашей, снятой с сервера ({@link resto.push.trace.FlushTraceWriter}).
+ * <p>
+ * Флаши подаются в {@link PushNotificationManager} в порядке и с интервалами из трассы. Расписание периодических
+ * уведомлений и повторных попыток идет по виртуальному времени трассы, поэтому при {@code --speed=0} сутки трафика
+ * воспроизводятся за секунды. При {@code --speed=N} между флашами выдерживаются паузы в N раз короче реальных.
+ * Подписчики - заглушки {@link StubSubscriberServer}, параметры те же, что у {@link PushLoadTest}. Для
+ * повторяемых результатов используйте подписчиков без TIMEOUT: ожидание таймаута идет в реальном времени.
+ */
+public final class PushReplay {
+
+    /**
+     * Сколько ждать завершения доставок после флаша в детерминированном режиме
+     */
+    private static final long IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private PushReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = new LoadTestSettings(args);
+        System.out.println("Push replay: trace=" + settings.getTrace() + ", speed=" + settings.getSpeed()
+                           + ", deterministic=" + settings.isDeterministic() + ", " + settings);
+
+        LoadTestRecorder recorder = new LoadTestRecorder();
+        LoadTestEnvironment environment = new LoadTestEnvironment(settings);
+        ExecutorService stubExecutor =
+            Executors.newFixedThreadPool(settings.getStubThreads(), NamedThreadFactory.multiDaemon("StubSubscriber"));
+        List<StubSubscriberServer> servers = new ArrayList<>();
+        for (int i = 0; i < settings.getHosts(); i++) {
+            StubSubscriberServer server = new StubSubscriberServer(settings, recorder, stubExecutor);
+            server.start();
+            servers.add(server);
+        }
+
+        VirtualClockScheduler clock = new VirtualClockScheduler();
+        PushNotificationManager manager = new PushNotificationManager(environment, clock);
+        List<StubSubscriberBehavior> behaviors =
+            PushLoadTest.distribute(settings.getBehaviorMix(), settings.getSubscribers());
+        for (int i = 0; i < settings.getSubscribers(); i++) {
+            String alias = "replay" + i;
+            String url = servers.get(i % servers.size()).addSubscriber(alias, behaviors.get(i));
+            PushSubscriberConfiguration configuration = new PushSubscriberConfiguration(alias, url,
+                settings.getPeriodSec(), settings.getConnectTimeoutMillis(), "application/json",
+                Collections.emptyList(), LocalDateTime.now().plusYears(1));
+            configuration.setHedgedDelivery(settings.isHedgedDelivery());
+            configuration.setAdaptiveTimeout(settings.isAdaptiveTimeout());
+            manager.subscribe(configuration);
+        }
+
+        long wallStartNanos = System.nanoTime();
+        long reportPeriodNanos = TimeUnit.SECONDS.toNanos(settings.getReportSec());
+        long nextReportNanos = reportPeriodNanos;
+        int flushes = 0;
+        try (FlushTraceReader reader = new FlushTraceReader(Paths.get(settings.getTrace()))) {
+            FlushTraceRecord record;
+            while ((record = reader.next()) != null) {
+                long traceNanos = TimeUnit.MILLISECONDS.toNanos(record.getTimestampMillis() - reader.getStartMillis());
+                if (settings.getSpeed() > 0) {
+                    long sleepNanos = wallStartNanos + (long) (traceNanos / settings.getSpeed()) - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                }
+                // Сначала срабатывают периодические уведомления и повторы, наступившие до флаша
+                clock.advanceTo(traceNanos);
+                awaitIdle(settings, manager);
+                environment.publishRevision(record.getRevision());
+                recorder.onPublished(record.getRevision());
+                manager.onCreateStatistic(record.toStatistic());
+                awaitIdle(settings, manager);
+                flushes++;
+                if (traceNanos >= nextReportNanos) {
+                    print(clock, manager, environment, recorder, flushes, wallStartNanos);
+                    nextReportNanos = traceNanos + reportPeriodNanos;
+                }
+            }
+        }
+        // Даем отработать отложенным повторам и последнему периодическому уведомлению
+        long drainNanos = Math.max(TimeUnit.SECONDS.toNanos(settings.getDrainSec()),
+            TimeUnit.MINUTES.toNanos(environment.getMaxAttemptPeriodMinutes() * (long) settings.getMaxTryAttempts()));
+        long drainStep = TimeUnit.SECONDS.toNanos(1);
+        for (long target = clock.getNanos() + drainNanos; clock.getNanos() < target; ) {
+            clock.advanceTo(clock.getNanos() + drainStep);
+            awaitIdle(settings, manager);
+        }
+        awaitIdle(settings, manager);
+        print(clock, manager, environment, recorder, flushes, wallStartNanos);
+
+        manager.getNotifiers().values().forEach(notifier -> notifier.unsubscribe(true));
+        clock.shutdownNow();
+        servers.forEach(StubSubscriberServer::stop);
+        stubExecutor.shutdownNow();
+        System.exit(0);
+    }
+
+    /**
+     * Ждем, пока планировщик доставки не разберет все задачи
+     */
+    private static void awaitIdle(LoadTestSettings settings, PushNotificationManager manager)
+        throws InterruptedException {
+        if (!settings.isDeterministic()) {
+            return;
+        }
+        PushMetricsRegistry metrics = manager.getMetrics();
+        long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MILLIS;
+        while ((metrics.getDeliveryWorkers() > 0 || metrics.getQueuedDeliveries() > 0)
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void print(
+        VirtualClockScheduler clock,
+        PushNotificationManager manager,
+        LoadTestEnvironment environment,
+        LoadTestRecorder recorder,
+        int flushes,
+        long wallStartNanos
+    ) {
+        Map<NotifierStatus, Long> statuses = manager.getNotifiers().values().stream()
+            .collect(Collectors.groupingBy(PushSubscriberNotifier::getStatus, Collectors.counting()));
+        long lagging = manager.getMetrics().getNotifiers().stream()
+            .filter(snapshot -> snapshot.getLastRevisionTo() < environment.getMaxExportableRevision())
+            .count();
+        System.out.printf(
+            "[trace %ds, wall %.1fs] flushes=%d revision=%d deliveries=%d requests=%d duplicates=%d "
+            + "received=%dKB events=%d notifiers=%s behind=%d%n",
+            TimeUnit.NANOSECONDS.toSeconds(clock.getNanos()), (System.nanoTime() - wallStartNanos) / 1e9,
+            flushes, environment.getMaxExportableRevision(), recorder.getDeliveries(), recorder.getRequests(),
+            recorder.getDuplicateRequests(), recorder.getReceivedBytes() >> 10, environment.getSavedEvents(),
+            statuses, lagging);
+    }
+}
@@ -0,0 +1,31 @@
+package resto.push;
+
+/**
+ * Поведение заглушки подписчика
+ */
+public enum StubSubscriberBehavior {
+    /**
+     * Сразу отвечает SUCCESS
+     */
+    FAST,
+    /**
+     * Отвечает SUCCESS с задержкой
+     */
+    SLOW,
+    /**
+     * Отвечает позже таймаута чтения
+     */
+    TIMEOUT,
+    /**
+     * Отвечает ERROR
+     */
+    ERROR,
+    /**
+     * Отвечает STOP, после чего подписка останавливается
+     */
+    STOP,
+    /**
+     * Попеременно работает и отвечает 503
+     */
+    FLAPPING
+}
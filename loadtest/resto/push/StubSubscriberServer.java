@@ -0,0 +1,150 @@
+package resto.push;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import resto.push.dto.ChangeStatisticDto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Http-сервер на loopback-интерфейсе, обслуживающий заглушки подписчиков по адресам {@code /push/<alias>}.
+ * Несколько подписчиков на одном сервере делят хост, как несколько подписок одной внешней системы.
+ */
+public class StubSubscriberServer {
+
+    private static final Pattern REVISION_FROM = Pattern.compile("\"revisionFrom\"\\s*:\\s*(\\d+)");
+
+    private static final Pattern REVISION_TO = Pattern.compile("\"revisionTo\"\\s*:\\s*(\\d+)");
+
+    private static final byte[] SUCCESS = "{\"result\":\"SUCCESS\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ERROR =
+        "{\"result\":\"ERROR\",\"message\":\"stub subscriber error\"}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] STOP =
+        "{\"result\":\"STOP\",\"message\":\"stub subscriber stop\"}".getBytes(StandardCharsets.UTF_8);
+
+    @NotNull
+    private final HttpServer server;
+
+    @NotNull
+    private final Map<String, StubSubscriberBehavior> behaviors = new ConcurrentHashMap<>();
+
+    @NotNull
+    private final LoadTestSettings settings;
+
+    @NotNull
+    private final LoadTestRecorder recorder;
+
+    public StubSubscriberServer(
+        @NotNull LoadTestSettings settings,
+        @NotNull LoadTestRecorder recorder,
+        @NotNull Executor executor
+    ) throws IOException {
+        this.settings = settings;
+        this.recorder = recorder;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/push/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Регистрирует подписчика и возвращает его url
+     */
+    @NotNull
+    public String addSubscriber(@NotNull String alias, @NotNull StubSubscriberBehavior behavior) {
+        behaviors.put(alias, behavior);
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + "/push/" + alias;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long receivedNanos = System.nanoTime();
+        try {
+            String alias = exchange.getRequestURI().getPath().substring("/push/".length());
+            StubSubscriberBehavior behavior = behaviors.getOrDefault(alias, StubSubscriberBehavior.FAST);
+            byte[] body = readBody(exchange.getRequestBody());
+            String idempotencyKey = exchange.getRequestHeaders().getFirst(ChangeStatisticDto.IDEMPOTENCY_KEY_HEADER);
+            recorder.onRequest(behavior, body.length, idempotencyKey);
+            switch (behavior) {
+                case SLOW:
+                    sleep(settings.getSlowMillis());
+                    break;
+                case TIMEOUT:
+                    sleep(settings.getReadTimeoutMillis() * 2L);
+                    break;
+                case FLAPPING:
+                    if ((System.currentTimeMillis() / settings.getFlapPeriodMillis()) % 2 == 1) {
+                        respond(exchange, 503, new byte[0]);
+                        return;
+                    }
+                    break;
+                default:
+            }
+            if (behavior == StubSubscriberBehavior.ERROR) {
+                respond(exchange, 200, ERROR);
+            } else if (behavior == StubSubscriberBehavior.STOP) {
+                respond(exchange, 200, STOP);
+            } else {
+                String json = new String(body, StandardCharsets.UTF_8);
+                recorder.onDelivered(parseInt(REVISION_FROM, json), parseInt(REVISION_TO, json), receivedNanos);
+                respond(exchange, 200, SUCCESS);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static int parseInt(Pattern pattern, String json) {
+        Matcher matcher = pattern.matcher(json);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пул расписаний с виртуальным временем. Задачи выполняются только в {@link #advanceTo(long)}, в потоке
+ * вызывающего, строго в порядке времени (при равном времени - в порядке постановки).
+ * Так периодические уведомления и повторные попытки за сутки трассы воспроизводятся за секунды.
+ */
+public class VirtualClockScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final PriorityQueue<VirtualTask<?>> tasks = new PriorityQueue<>();
+
+    private long nowNanos;
+
+    private long sequence;
+
+    private boolean shutdown;
+
+    /**
+     * Текущее виртуальное время, нс от начала воспроизведения
+     */
+    public synchronized long getNanos() {
+        return nowNanos;
+    }
+
+    /**
+     * Продвигает время, выполняя все задачи, срок которых наступил
+     *
+     * @return количество выполненных задач
+     */
+    public int advanceTo(long targetNanos) {
+        int executed = 0;
+        while (true) {
+            VirtualTask<?> task;
+            synchronized (this) {
+                task = tasks.peek();
+                if (task == null || task.timeNanos > targetNanos) {
+                    nowNanos = Math.max(nowNanos, targetNanos);
+                    return executed;
+                }
+                tasks.poll();
+                nowNanos = Math.max(nowNanos, task.timeNanos);
+            }
+            task.run();
+            executed++;
+            if (task.periodNanos != 0 && !task.isDone()) {
+                synchronized (this) {
+                    task.timeNanos = task.periodNanos > 0 ? task.timeNanos + task.periodNanos
+                        : nowNanos - task.periodNanos;
+                    if (!shutdown) {
+                        tasks.add(task);
+                    }
+                }
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public ScheduledFuture<?> schedule(@NotNull Runnable command, long delay, @NotNull TimeUnit unit) {
+        return enqueue(new VirtualTask<>(Executors.callable(command), unit.toNanos(delay), 0));
+    }
+
+    @NotNull
+    @Override
+    public <V> ScheduledFuture<V> schedule(@NotNull Callable<V> callable, long delay, @NotNull TimeUnit unit) {
+        return enqueue(new VirtualTask<>(callable, unit.toNanos(delay), 0));
+    }
+
+    @NotNull
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+        @NotNull Runnable command,
+        long initialDelay,
+        long period,
+        @NotNull TimeUnit unit
+    ) {
+        return enqueue(new VirtualTask<>(Executors.callable(command), unit.toNanos(initialDelay),
+            Math.max(1, unit.toNanos(period))));
+    }
+
+    @NotNull
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+        @NotNull Runnable command,
+        long initialDelay,
+        long delay,
+        @NotNull TimeUnit unit
+    ) {
+        // Отрицательный период означает фиксированную задержку от завершения, как в ScheduledThreadPoolExecutor
+        return enqueue(new VirtualTask<>(Executors.callable(command), unit.toNanos(initialDelay),
+            -Math.max(1, unit.toNanos(delay))));
+    }
+
+    @Override
+    public void execute(@NotNull Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized <V> VirtualTask<V> enqueue(VirtualTask<V> task) {
+        if (shutdown) {
+            task.cancel(false);
+            return task;
+        }
+        task.timeNanos += nowNanos;
+        task.sequence = sequence++;
+        tasks.add(task);
+        return task;
+    }
+
+    private synchronized void remove(VirtualTask<?> task) {
+        tasks.remove(task);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @NotNull
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        return pending;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) {
+        return isTerminated();
+    }
+
+    private class VirtualTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        /**
+         * Положительный - фиксированная частота, отрицательный - фиксированная задержка, 0 - однократная задача
+         */
+        private final long periodNanos;
+
+        private long timeNanos;
+
+        private long sequence;
+
+        private VirtualTask(Callable<V> callable, long delayNanos, long periodNanos) {
+            super(callable);
+            this.timeNanos = delayNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            if (periodNanos == 0) {
+                super.run();
+            } else {
+                runAndReset();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(@NotNull TimeUnit unit) {
+            return unit.convert(timeNanos - getNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(@NotNull Delayed other) {
+            VirtualTask<?> task = (VirtualTask<?>) other;
+            int result = Long.compare(timeNanos, task.timeNanos);
+            return result != 0 ? result : Long.compare(sequence, task.sequence);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import resto.push.statistic.ChangeStatisticView;
+
+/**
+ * Подписчик, работающий в одном процессе с сервером (например, плагин). Получает статистику без сериализации и
+ * http, но через те же фильтрацию, накопление изменений и повторные попытки, что и подписчик по url.
+ * <p>
+ * Регистрируется в менеджере под именем ({@link PushNotificationManager#registerListener}), конфигурация подписчика
+ * ссылается на него url вида {@value #LOCAL_URL_PREFIX}имя.
+ */
+public interface PushChangeListener {
+
+    /**
+     * Префикс url подписчика в том же процессе
+     */
+    String LOCAL_URL_PREFIX = "local:";
+
+    /**
+     * Обработка пакета изменений. Вызывается из потока доставки, по одному пакету за раз.
+     * Если метод бросил исключение, тот же пакет будет передан повторно по расписанию повторных попыток.
+     *
+     * @param changes - пакет изменений только для чтения. При повторной попытке передается тот же пакет.
+     */
+    void onChanges(@NotNull ChangeStatisticView changes);
+}
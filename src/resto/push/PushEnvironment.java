@@ -0,0 +1,93 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import resto.db.Guid;
+import resto.push.configuration.PushSubscriptionEntity;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Сервисы сервера, которые нужны уведомителям: ревизии, настройки, запись эвентов и транзакции.
+ * На сервере - {@link ServerPushEnvironment}, в нагрузочных тестах и бенчмарках подменяется заглушкой.
+ */
+public interface PushEnvironment {
+
+    /**
+     * Id запуска сервера
+     */
+    @NotNull
+    Guid getInstanceId();
+
+    /**
+     * Максимальная ревизия, изменения которой можно отдавать подписчикам
+     */
+    int getMaxExportableRevision();
+
+    /**
+     * Подписанные классы с учетом иерархии. Пустое множество - подписка на все классы.
+     * Иерархия может кэшироваться до {@link #invalidateClassHierarchy()}.
+     */
+    @NotNull
+    Set<String> getSubscriptionClasses(@NotNull List<PushSubscriptionEntity> subscriptionEntities);
+
+    /**
+     * Сбрасываем кэш иерархии классов после изменения метаданных классов
+     */
+    void invalidateClassHierarchy();
+
+    /**
+     * Количество неудаленных объектов подписанных классов по данным базы
+     *
+     * @param subscriptionEntities - подписанные классы, пустой список - все классы
+     *
+     * @return количество объектов по именам классов
+     */
+    @NotNull
+    Map<String, Integer> countEntities(@NotNull List<PushSubscriptionEntity> subscriptionEntities);
+
+    int getMaxTryAttempts();
+
+    int getMaxAttemptPeriodMinutes();
+
+    int getReadTimeoutMillis();
+
+    /**
+     * Сохранение эвента об ошибке уведомления
+     */
+    void saveEvent(@NotNull PushNotificationEvent event);
+
+    /**
+     * Сохранение повтора ошибки в ранее записанном эвенте
+     */
+    void updateEvent(@NotNull PushNotificationEvent event);
+
+    /**
+     * Сохранение stacktrace'а, если stacktrace с таким хэшем еще не сохранен, иначе продление даты сохраненного
+     * до даты переданного, чтобы его не удалила очистка эвентов
+     */
+    void saveStacktrace(@NotNull PushNotificationStacktrace stacktrace);
+
+    /**
+     * Удаление самых старых эвентов, записанных раньше заданного момента
+     *
+     * @param maxCount - ограничение количества удаляемых эвентов
+     *
+     * @return количество удаленных эвентов
+     */
+    int purgeEvents(@NotNull Date before, int maxCount);
+
+    /**
+     * Удаление stacktrace'ов, впервые встреченных раньше заданного момента, на которые не ссылается ни один эвент
+     *
+     * @return количество удаленных stacktrace'ов
+     */
+    int purgeStacktraces(@NotNull Date before);
+
+    /**
+     * Изменение персистентных сущностей в транзакции
+     */
+    void runTransacted(@NotNull Runnable action);
+}
@@ -0,0 +1,77 @@
+package resto.push;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.configuration.PushSubscriberConfiguration;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запись эвентов об ошибках уведомления одного подписчика.
+ * <p>
+ * Stacktrace хранится один раз ({@link PushNotificationStacktrace}), эвент ссылается на него по хэшу.
+ * Ошибка, повторившая предыдущую (то же сообщение и stacktrace), не создает новый эвент: у предыдущего
+ * увеличивается счетчик повторов и время последнего повтора.
+ */
+final class PushEventLog {
+
+    /**
+     * Сколько повторы копятся в одном эвенте. Должно быть заметно меньше срока хранения эвентов, чтобы эвент
+     * не был удален, пока в него пишутся повторы.
+     *
+     * @see PushEventRetention
+     */
+    private static final long COLLAPSE_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    @NotNull
+    private final PushSubscriberConfiguration configuration;
+
+    @NotNull
+    private final PushEnvironment environment;
+
+    /**
+     * Последний записанный эвент и время его записи
+     */
+    @Nullable
+    private PushNotificationEvent lastEvent;
+
+    private long lastEventMillis;
+
+    PushEventLog(@NotNull PushSubscriberConfiguration configuration, @NotNull PushEnvironment environment) {
+        this.configuration = configuration;
+        this.environment = environment;
+    }
+
+    synchronized void write(int revisionFrom, int revisionTo, @NotNull Throwable t) {
+        String message = t.getMessage() != null ? t.getMessage() : t.getClass().getName();
+        write(revisionFrom, revisionTo, message, ExceptionUtils.getStackTrace(t));
+    }
+
+    synchronized void write(int revisionFrom, int revisionTo, @NotNull String message) {
+        write(revisionFrom, revisionTo, message, null);
+    }
+
+    private void write(int revisionFrom, int revisionTo, @NotNull String message, @Nullable String stacktrace) {
+        String stacktraceHash = stacktrace == null ? null : PushNotificationStacktrace.getHash(stacktrace);
+        Date now = new Date();
+        PushNotificationEvent last = lastEvent;
+        if (last != null && last.isSameError(message, stacktraceHash)
+            && now.getTime() - lastEventMillis < COLLAPSE_PERIOD_MILLIS) {
+            last.onRepeated(revisionTo, now);
+            environment.updateEvent(last);
+            return;
+        }
+        // Наличие stacktrace'а проверяется в БД при каждом новом эвенте: очистка могла удалить его в любой момент,
+        // а продление даты не дает удалить его, пока на него ссылаются свежие эвенты
+        if (stacktrace != null) {
+            environment.saveStacktrace(new PushNotificationStacktrace(stacktrace));
+        }
+        PushNotificationEvent event =
+            new PushNotificationEvent(configuration, revisionFrom, revisionTo, message, stacktraceHash);
+        environment.saveEvent(event);
+        lastEvent = event;
+        lastEventMillis = now.getTime();
+    }
+}
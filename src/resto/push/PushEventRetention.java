@@ -0,0 +1,75 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import resto.utils.log4j.RestoLogger;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновое удаление старых эвентов об ошибках уведомлений и неиспользуемых stacktrace'ов.
+ * Эвенты удаляются пачками ограниченного размера, каждая пачка - отдельная короткая операция с БД.
+ */
+final class PushEventRetention implements Runnable {
+
+    private static final RestoLogger LOG = RestoLogger.getLogger(PushEventRetention.class);
+
+    /**
+     * Системное свойство со сроком хранения эвентов в днях (0 и меньше - не удалять)
+     */
+    static final String RETENTION_DAYS_PROPERTY = "resto.push.events.retentionDays";
+
+    private static final int DEFAULT_RETENTION_DAYS = 30;
+
+    /**
+     * Размер пачки удаляемых эвентов
+     */
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Ограничение количества пачек за один запуск, остаток удаляется при следующих запусках
+     */
+    private static final int MAX_BATCHES_PER_RUN = 100;
+
+    @NotNull
+    private final PushEnvironment environment;
+
+    private final long retentionMillis;
+
+    PushEventRetention(@NotNull PushEnvironment environment, int retentionDays) {
+        this.environment = environment;
+        this.retentionMillis = TimeUnit.DAYS.toMillis(retentionDays);
+    }
+
+    @NotNull
+    static PushEventRetention fromSystemProperties(@NotNull PushEnvironment environment) {
+        return new PushEventRetention(environment, Integer.getInteger(RETENTION_DAYS_PROPERTY, DEFAULT_RETENTION_DAYS));
+    }
+
+    boolean isEnabled() {
+        return retentionMillis > 0;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Date before = new Date(System.currentTimeMillis() - retentionMillis);
+            int purgedEvents = 0;
+            for (int batch = 0; batch < MAX_BATCHES_PER_RUN; batch++) {
+                int purged = environment.purgeEvents(before, BATCH_SIZE);
+                purgedEvents += purged;
+                if (purged < BATCH_SIZE) {
+                    break;
+                }
+            }
+            int purgedStacktraces = environment.purgeStacktraces(before);
+            if (purgedEvents > 0 || purgedStacktraces > 0) {
+                LOG.info.format("Push notification events purged: %s, stacktraces purged: %s, older than: %s",
+                    purgedEvents, purgedStacktraces, before);
+            }
+        } catch (RuntimeException e) {
+            // Исключение отменило бы периодическую задачу
+            LOG.error.format(e, "Error occurred while purging push notification events");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package resto.push;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общий для всех уведомителей бюджет памяти под недоставленную статистику.
+ * <p>
+ * Статистика флаша учитывается один раз, пока она лежит хотя бы в одной очереди уведомителя: одна статистика
+ * раздается всем уведомителям. Собранный пакет уведомителя учитывается до его доставки. При превышении бюджета
+ * менеджер схлопывает самые большие очереди в признак необходимости полной пересинхронизации, поэтому объем
+ * очередей не зависит от того, сколько подписчиков недоступно.
+ */
+public class PushMemoryBudget {
+
+    /**
+     * Системное свойство с бюджетом в байтах (0 и меньше - без ограничения)
+     */
+    public static final String MAX_BYTES_PROPERTY = "resto.push.memoryBudget.maxBytes";
+
+    /**
+     * Бюджет без ограничения
+     */
+    static final PushMemoryBudget UNLIMITED = new PushMemoryBudget(0);
+
+    /**
+     * Доля максимального размера кучи, отдаваемая под очереди по умолчанию
+     */
+    private static final int DEFAULT_HEAP_FRACTION = 10;
+
+    private final long maxBytes;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    public PushMemoryBudget(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Бюджет по системному свойству {@link #MAX_BYTES_PROPERTY}, по умолчанию 1/10 максимального размера кучи
+     */
+    public static PushMemoryBudget fromSystemProperties() {
+        return new PushMemoryBudget(
+            Long.getLong(MAX_BYTES_PROPERTY, Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION));
+    }
+
+    /**
+     * Учитываем память. Резерв не ограничивается, превышение бюджета снимает менеджер, схлопывая самые большие
+     * очереди.
+     */
+    public void reserve(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        usedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Бюджет превышен
+     */
+    public boolean isExceeded() {
+        return maxBytes > 0 && usedBytes.get() > maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
@@ -20,15 +20,22 @@ import resto.push.configuration.PushSubscriberConfiguration;
 
 import javax.persistence.Entity;
 import java.util.Date;
+import java.util.Objects;
 
 /**
  * Эвент, содержащий информацию об ошибках push-уведомлений.
+ * Одинаковые ошибки, повторяющиеся подряд, записываются одним эвентом со счетчиком повторов.
+ *
+ * @see PushEventLog
+ * @see PushNotificationEventDao
  */
 @Entity
 @DataClass(convert = false)
 @AccessType("field")
 @TableIndexes({
     @TableIndex(columnNames = {"date"}, clustered = true),
+    @TableIndex(columnNames = {"configuration", "date"}),
+    @TableIndex(columnNames = {"stacktraceHash"}),
 })
 @RootCachedEntity(loader = NonCachingHibernateEntityLoader.class)
 public class PushNotificationEvent extends RestoEvent {
@@ -51,13 +58,35 @@ public class PushNotificationEvent extends RestoEvent {
     private String message;
 
     /**
-     * stacktrace, если возникла ошибка
+     * stacktrace, если возникла ошибка. Заполнен только у эвентов, записанных до появления
+     * {@link #stacktraceHash}.
      */
     @DefaultNull
     @Type(type = "text")
     @Nullable
     private String stacktrace;
 
+    /**
+     * Хэш stacktrace'а, если возникла ошибка
+     *
+     * @see PushNotificationStacktrace
+     */
+    @DefaultNull
+    @Nullable
+    private String stacktraceHash;
+
+    /**
+     * Сколько раз ошибка повторилась подряд (0 - эвент записан до появления счетчика)
+     */
+    private int repeatCount;
+
+    /**
+     * Время последнего повтора, время первого - дата эвента
+     */
+    @DefaultNull
+    @Nullable
+    private Date lastDate;
+
     @SuppressWarnings("ConstantConditions")
     @ConstructorWithoutArgs
     protected PushNotificationEvent() {
@@ -92,6 +121,39 @@ public class PushNotificationEvent extends RestoEvent {
         this.stacktrace = ExceptionUtils.getStackTrace(t);
     }
 
+    /**
+     * @param stacktraceHash - хэш сохраненного stacktrace'а ошибки
+     */
+    public PushNotificationEvent(
+        @NotNull PushSubscriberConfiguration configuration,
+        int revisionFrom,
+        int revisionTo,
+        @NotNull String message,
+        @Nullable String stacktraceHash
+    ) {
+        this(configuration, revisionFrom, revisionTo, message);
+        this.stacktraceHash = stacktraceHash;
+        this.repeatCount = 1;
+    }
+
+    /**
+     * Эвент описывает ту же ошибку
+     */
+    public boolean isSameError(@NotNull String message, @Nullable String stacktraceHash) {
+        return this.message.equals(message) && Objects.equals(this.stacktraceHash, stacktraceHash);
+    }
+
+    /**
+     * Ошибка повторилась
+     *
+     * @param revisionTo - ревизия, до которой не удалось уведомить при повторе
+     */
+    public void onRepeated(int revisionTo, @NotNull Date date) {
+        this.revisionTo = Math.max(this.revisionTo, revisionTo);
+        this.repeatCount = getRepeatCount() + 1;
+        this.lastDate = date;
+    }
+
     @Override
     public int getItemsCount() {
         return 0;
@@ -127,4 +189,18 @@ public class PushNotificationEvent extends RestoEvent {
     public void setStacktrace(@Nullable String stacktrace) {
         this.stacktrace = stacktrace;
     }
+
+    @Nullable
+    public String getStacktraceHash() {
+        return stacktraceHash;
+    }
+
+    public int getRepeatCount() {
+        return Math.max(repeatCount, 1);
+    }
+
+    @Nullable
+    public Date getLastDate() {
+        return lastDate;
+    }
 }
\ No newline at end of file
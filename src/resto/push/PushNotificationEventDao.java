@@ -0,0 +1,107 @@
+package resto.push;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.db.Guid;
+import resto.db.hibernate.HibernateSession;
+import resto.push.configuration.PushSubscriberConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Чтение эвентов об ошибках уведомления для диагностики подписчиков.
+ * <p>
+ * Эвенты конфигурации читаются по индексу (configuration, date) страницами с пагинацией по ключу (date, id):
+ * следующая страница продолжает с последнего прочитанного эвента, поэтому время запроса не растет с номером
+ * страницы. Stacktrace'ы в страницу не загружаются.
+ */
+public class PushNotificationEventDao {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    /**
+     * Эвенты конфигурации от новых к старым
+     *
+     * @param after        - ключ страницы, с которой продолжаем (null - с самых новых)
+     * @param revisionFrom - только эвенты, затрагивающие ревизии не раньше этой (null - без ограничения)
+     * @param revisionTo   - только эвенты, затрагивающие ревизии не позже этой (null - без ограничения)
+     * @param pageSize     - размер страницы, не больше {@link #MAX_PAGE_SIZE}
+     */
+    @NotNull
+    public PushNotificationEventPage getEvents(
+        @NotNull PushSubscriberConfiguration configuration,
+        @Nullable PushNotificationEventPage.Key after,
+        @Nullable Integer revisionFrom,
+        @Nullable Integer revisionTo,
+        int pageSize
+    ) {
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        StringBuilder hql = new StringBuilder(
+            "select new resto.push.PushNotificationEventSummary(e.id, e.date, e.revisionFrom, e.revisionTo, " +
+            "e.message, e.stacktraceHash, e.repeatCount, e.lastDate) " +
+            "from PushNotificationEvent e where e.configuration = :configuration");
+        if (after != null) {
+            hql.append(" and (e.date < :afterDate or (e.date = :afterDate and e.id < :afterId))");
+        }
+        if (revisionFrom != null) {
+            hql.append(" and e.revisionTo >= :revisionFrom");
+        }
+        if (revisionTo != null) {
+            hql.append(" and e.revisionFrom <= :revisionTo");
+        }
+        hql.append(" order by e.date desc, e.id desc");
+
+        List<PushNotificationEventSummary> events = HibernateSession.exec(() -> {
+            Query query = HibernateSession.get().createQuery(hql.toString())
+                .setParameter("configuration", configuration)
+                .setMaxResults(limit + 1);
+            if (after != null) {
+                query.setParameter("afterDate", after.getDate()).setParameter("afterId", after.getId());
+            }
+            if (revisionFrom != null) {
+                query.setParameter("revisionFrom", revisionFrom);
+            }
+            if (revisionTo != null) {
+                query.setParameter("revisionTo", revisionTo);
+            }
+            @SuppressWarnings("unchecked")
+            List<PushNotificationEventSummary> result = query.list();
+            return new ArrayList<>(result);
+        });
+        PushNotificationEventPage.Key nextKey = null;
+        if (events.size() > limit) {
+            events = events.subList(0, limit);
+            PushNotificationEventSummary last = events.get(limit - 1);
+            nextKey = new PushNotificationEventPage.Key(last.getDate(), last.getId());
+        }
+        return new PushNotificationEventPage(events, nextKey);
+    }
+
+    /**
+     * Stacktrace эвента
+     *
+     * @return null, если эвента нет или он записан без ошибки
+     */
+    @Nullable
+    public String getStacktrace(@NotNull Guid eventId) {
+        return HibernateSession.exec(() -> {
+            Session session = HibernateSession.get();
+            Object[] row = (Object[]) session.createQuery(
+                    "select e.stacktraceHash, e.stacktrace from PushNotificationEvent e where e.id = :id")
+                .setParameter("id", eventId)
+                .uniqueResult();
+            if (row == null || row[0] == null) {
+                // Эвенты, записанные до появления хэша, хранят stacktrace в себе
+                return row == null ? null : (String) row[1];
+            }
+            return (String) session.createQuery(
+                    "select s.stacktrace from PushNotificationStacktrace s where s.hash = :hash")
+                .setParameter("hash", row[0])
+                .setMaxResults(1)
+                .uniqueResult();
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.db.Guid;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Страница эвентов об ошибках уведомления одной конфигурации, от новых к старым
+ *
+ * @see PushNotificationEventDao#getEvents
+ */
+public class PushNotificationEventPage {
+
+    @NotNull
+    private final List<PushNotificationEventSummary> events;
+
+    /**
+     * Ключ следующей страницы (null - страница последняя)
+     */
+    @Nullable
+    private final Key nextKey;
+
+    public PushNotificationEventPage(@NotNull List<PushNotificationEventSummary> events, @Nullable Key nextKey) {
+        this.events = Collections.unmodifiableList(events);
+        this.nextKey = nextKey;
+    }
+
+    @NotNull
+    public List<PushNotificationEventSummary> getEvents() {
+        return events;
+    }
+
+    @Nullable
+    public Key getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * Позиция страницы: следующая страница начинается с эвентов строго старше (date, id)
+     */
+    public static class Key {
+
+        @NotNull
+        private final Date date;
+
+        @NotNull
+        private final Guid id;
+
+        public Key(@NotNull Date date, @NotNull Guid id) {
+            this.date = date;
+            this.id = id;
+        }
+
+        @NotNull
+        public Date getDate() {
+            return date;
+        }
+
+        @NotNull
+        public Guid getId() {
+            return id;
+        }
+    }
+}
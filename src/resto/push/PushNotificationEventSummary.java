@@ -0,0 +1,96 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.db.Guid;
+
+import java.util.Date;
+
+/**
+ * Эвент об ошибке уведомления без stacktrace'а. Stacktrace загружается отдельно по требованию.
+ *
+ * @see PushNotificationEventDao#getStacktrace(Guid)
+ */
+public class PushNotificationEventSummary {
+
+    @NotNull
+    private final Guid id;
+
+    @NotNull
+    private final Date date;
+
+    private final int revisionFrom;
+
+    private final int revisionTo;
+
+    @NotNull
+    private final String message;
+
+    /**
+     * Хэш stacktrace'а. У эвентов, записанных до появления хэша, null, но stacktrace может быть.
+     */
+    @Nullable
+    private final String stacktraceHash;
+
+    private final int repeatCount;
+
+    @Nullable
+    private final Date lastDate;
+
+    public PushNotificationEventSummary(
+        @NotNull Guid id,
+        @NotNull Date date,
+        int revisionFrom,
+        int revisionTo,
+        @NotNull String message,
+        @Nullable String stacktraceHash,
+        int repeatCount,
+        @Nullable Date lastDate
+    ) {
+        this.id = id;
+        this.date = date;
+        this.revisionFrom = revisionFrom;
+        this.revisionTo = revisionTo;
+        this.message = message;
+        this.stacktraceHash = stacktraceHash;
+        this.repeatCount = Math.max(repeatCount, 1);
+        this.lastDate = lastDate;
+    }
+
+    @NotNull
+    public Guid getId() {
+        return id;
+    }
+
+    @NotNull
+    public Date getDate() {
+        return date;
+    }
+
+    public int getRevisionFrom() {
+        return revisionFrom;
+    }
+
+    public int getRevisionTo() {
+        return revisionTo;
+    }
+
+    @NotNull
+    public String getMessage() {
+        return message;
+    }
+
+    @Nullable
+    public String getStacktraceHash() {
+        return stacktraceHash;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    @Nullable
+    public Date getLastDate() {
+        return lastDate;
+    }
+}
@@ -1,5 +1,6 @@
 package resto.push;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import resto.NamedThreadFactory;
 import resto.RestoProperties;
@@ -12,18 +13,34 @@ import resto.db.FlushTaskListener;
 import resto.db.Guid;
 import resto.db.metadata.ClassResolver;
 import resto.push.configuration.PushSubscriberConfiguration;
+import resto.push.configuration.SubscriptionStatus;
+import resto.push.delivery.HostConcurrencyLimiter;
+import resto.push.delivery.PushDeliveryScheduler;
+import resto.push.jfr.PushFanOutEvent;
+import resto.push.jfr.PushFlushAggregationEvent;
+import resto.push.metrics.PushMetricsRegistry;
+import resto.push.metrics.PushNotifierMetricsSnapshot;
 import resto.push.statistic.ChangeStatistic;
-import resto.push.statistic.ChangeStatisticItem;
+import resto.push.statistic.FlushStatisticAggregator;
+import resto.push.trace.FlushTraceWriter;
 import resto.utils.log4j.RestoLogger;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static resto.core.RestoServiceLocator.get;
 
@@ -36,18 +53,98 @@ public class PushNotificationManager implements ServerComponent {
 
     private static final RestoLogger LOG = RestoLogger.getLogger(PushNotificationManager.class);
 
-    private static final ExecutorService IMMEDIATELY_POOL =
-        ActivityExecutors.newThreadPoolExecutor(2, 10, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(10),
-            NamedThreadFactory.multiDaemon("PushImmediate"));
+    private static final PushDeliveryScheduler DELIVERY_SCHEDULER =
+        new PushDeliveryScheduler(10, NamedThreadFactory.multiDaemon("PushImmediate"));
+
+    private static final HostConcurrencyLimiter HOST_LIMITER = new HostConcurrencyLimiter();
 
     private static final ScheduledExecutorService SCHEDULED_POOL =
         ActivityExecutors.newScheduledThreadPoolExecutor(2, NamedThreadFactory.multiDaemon("PushScheduled"));
 
+    /**
+     * Максимальная задержка проверки сроков подписок. Срок сверяется с часами сервера, поэтому далекое истечение
+     * перепроверяется периодически на случай перевода часов.
+     */
+    private static final long MAX_EXPIRY_CHECK_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Период удаления старых эвентов об ошибках уведомлений
+     */
+    private static final long EVENT_RETENTION_DELAY_MINUTES = 60;
+
+    /**
+     * Задержка повторной попытки, если не удалось сохранить истечение подписок
+     */
+    private static final long EXPIRY_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
     /**
      * Список notifier'ов
      */
     private final Map<Guid, PushSubscriberNotifier> notifiers = new ConcurrentHashMap<>();
 
+    /**
+     * Подписчики в том же процессе по именам
+     *
+     * @see PushChangeListener
+     */
+    private final Map<String, PushChangeListener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * Номера доставок по конфигурациям. Переживают удаление notifier'a: номера и ключи идемпотентности должны
+     * оставаться уникальными в рамках запуска сервера и после отписки и повторной подписки.
+     */
+    private final Map<Guid, AtomicLong> deliverySequences = new ConcurrentHashMap<>();
+
+    /**
+     * Бюджет памяти под недоставленную статистику всех notifier'ов
+     */
+    private final PushMemoryBudget memoryBudget = PushMemoryBudget.fromSystemProperties();
+
+    /**
+     * Метрики push-уведомлений
+     */
+    private final PushMetricsRegistry metrics =
+        new PushMetricsRegistry(DELIVERY_SCHEDULER, HOST_LIMITER, memoryBudget, this::getNotifierMetrics);
+
+    /**
+     * Сервисы сервера для уведомителей
+     */
+    @NotNull
+    private final PushEnvironment environment;
+
+    /**
+     * Пул расписаний периодических уведомлений и повторных попыток
+     */
+    @NotNull
+    private final ScheduledExecutorService schedulePool;
+
+    /**
+     * Запись потока флашей в трассу, если включена
+     *
+     * @see FlushTraceWriter#FILE_PROPERTY
+     */
+    @Nullable
+    private volatile FlushTraceWriter flushTrace;
+
+    /**
+     * Есть подписчики, которым нужны id измененных объектов
+     */
+    private volatile boolean collectEntityIds;
+
+    /**
+     * Сроки действия подписок работающих notifier'ов
+     */
+    private final SubscriptionExpiryIndex expiryIndex = new SubscriptionExpiryIndex();
+
+    /**
+     * Запланированная проверка сроков подписок и момент, на который она запланирована
+     */
+    @Nullable
+    private ScheduledFuture<?> expiryCheck;
+
+    @Nullable
+    private LocalDateTime expiryCheckDateTime;
+
     private EntityManager em;
 
     private ClassResolver resolver;
@@ -55,11 +152,30 @@ public class PushNotificationManager implements ServerComponent {
     public PushNotificationManager(EntityManager em, ClassResolver resolver) {
         this.em = em;
         this.resolver = resolver;
+        this.environment = ServerPushEnvironment.INSTANCE;
+        this.schedulePool = SCHEDULED_POOL;
+    }
+
+    /**
+     * Менеджер без подписки на флаши сервера: статистика передается в {@link #onCreateStatistic(ChangeStatistic)}
+     */
+    PushNotificationManager(@NotNull PushEnvironment environment) {
+        this(environment, SCHEDULED_POOL);
+    }
+
+    /**
+     * Менеджер без подписки на флаши сервера со своим пулом расписаний (например, с виртуальным временем)
+     */
+    PushNotificationManager(@NotNull PushEnvironment environment, @NotNull ScheduledExecutorService schedulePool) {
+        this.environment = environment;
+        this.schedulePool = schedulePool;
     }
 
     @Override
     public void initialize() {
         if (get(RestoProperties.class).isPushManagerEnabled()) {
+            metrics.registerMBean();
+            flushTrace = FlushTraceWriter.fromSystemProperties();
             new Thread(this::delayedInitialization, "PushNotificationManager#delayedInitialization").start();
         } else {
             LOG.warn("Push notification service is disabled by property 'push-manager-enabled=false'");
@@ -76,8 +192,16 @@ public class PushNotificationManager implements ServerComponent {
             }
         }
 
+        // Сервер запущен, метаданные плагинов загружены: иерархию перечитываем один раз на все подписки
+        environment.invalidateClassHierarchy();
         em.getAllNotDeletedCopy(PushSubscriberConfiguration.class).forEach(this::subscribe);
 
+        PushEventRetention retention = PushEventRetention.fromSystemProperties(environment);
+        if (retention.isEnabled()) {
+            schedulePool.scheduleWithFixedDelay(retention, EVENT_RETENTION_DELAY_MINUTES, EVENT_RETENTION_DELAY_MINUTES,
+                TimeUnit.MINUTES);
+        }
+
         // Подписываемся к процессу сброса данных в БД
         get(EntitiesDatabaseSynchronizer.class).subscribe(getFlushTaskListener());
         LOG.info("Push notification service started successfully");
@@ -85,73 +209,123 @@ public class PushNotificationManager implements ServerComponent {
 
     private FlushTaskListener getFlushTaskListener() {
         return task -> {
-            Map<String, ChangeStatisticItem> statisticHashMap = new HashMap<>();
+            long startNanos = System.nanoTime();
+            PushFlushAggregationEvent aggregationEvent = new PushFlushAggregationEvent();
+            aggregationEvent.begin();
             // Собираем статистику флаша в разрезе по классам
-            task.getEntitiesToCreateIds().forEach(id -> {
-                statisticHashMap.computeIfAbsent(
-                    resolver.getName(task.getEntity(id).getClass()),
-                    ChangeStatisticItem::new
-                ).incCreated();
-            });
-            task.getEntitiesToDeleteIds().forEach(id -> {
-                statisticHashMap.computeIfAbsent(
-                    resolver.getName(task.getEntity(id).getClass()),
-                    ChangeStatisticItem::new
-                ).incDeleted();
-            });
-            task.getEntitiesToUpdateIds().forEach(id -> {
-                statisticHashMap.computeIfAbsent(
-                    resolver.getName(task.getEntity(id).getClass()),
-                    ChangeStatisticItem::new
-                ).incUpdated();
-            });
-            ChangeStatistic statistic = new ChangeStatistic(task.getRevision(), statisticHashMap);
+            ChangeStatistic statistic = FlushStatisticAggregator.aggregate(
+                task.getRevision(),
+                task.getEntitiesToCreateIds(),
+                task.getEntitiesToDeleteIds(),
+                task.getEntitiesToUpdateIds(),
+                id -> resolver.getName(task.getEntity(id).getClass()),
+                task::getDirtyFields,
+                collectEntityIds
+            );
+            statistic.setFlushTiming(startNanos, System.nanoTime());
+            aggregationEvent.end();
+            if (aggregationEvent.shouldCommit()) {
+                aggregationEvent.revision = task.getRevision();
+                aggregationEvent.classCount = statistic.getClassStatistics().size();
+                aggregationEvent.entityCount = task.getEntitiesToCreateIds().size()
+                                               + task.getEntitiesToDeleteIds().size()
+                                               + task.getEntitiesToUpdateIds().size();
+                aggregationEvent.commit();
+            }
+            FlushTraceWriter trace = flushTrace;
+            if (trace != null) {
+                trace.record(statistic);
+            }
             onCreateStatistic(statistic);
+            metrics.recordFlushListener(System.nanoTime() - startNanos);
         };
     }
 
     /**
      * Менеджер предоставляет статистику всем активным notifier'ам.
-     * Для пермоментных notifier'ов создаем асинхронную задачу, если они не в процессе уведомления.
+     * Для пермоментных notifier'ов и срочных классов периодических создаем асинхронную задачу, если они не в процессе
+     * уведомления.
      *
      * @param statistic - атомарная статистика одного флаша
      */
-    private void onCreateStatistic(ChangeStatistic statistic) {
-        notifiers.values().stream()
-            .filter(PushSubscriberNotifier::isRunning)
+    void onCreateStatistic(ChangeStatistic statistic) {
+        PushFanOutEvent event = new PushFanOutEvent();
+        event.begin();
+        dispatchStatistic(notifiers.values(), statistic);
+        if (memoryBudget.isExceeded()) {
+            enforceMemoryBudget();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.revision = statistic.getRevisionTo();
+            event.notifierCount = notifiers.size();
+            event.commit();
+        }
+    }
+
+    static void dispatchStatistic(Collection<PushSubscriberNotifier> notifiers, ChangeStatistic statistic) {
+        notifiers.stream()
+            .filter(PushSubscriberNotifier::isAcceptingStatistics)
             .forEach(notifier -> {
-                // Добавляем статистику в очередь всем уведомителям
-                notifier.addStatistic(statistic);
+                // Добавляем статистику в очередь всем уведомителям, в том числе остановленным: после возобновления
+                // они продолжат с того же места. Неподписанные изменения и изменения ниже порога уведомителя не будят,
+                // периодического будят только изменения срочных классов, остановленного не будят.
                 // Задачи для периодических уведомлений ставятся на этапе создания notifier'a
-                if (notifier.isImmediately()) {
+                if (notifier.addStatistic(statistic) && notifier.isRunning()) {
                     notifier.onRunAsyncProcessNotify();
                 }
             });
     }
 
     /**
-     * Создаем или перезапускаем notifier'a.
+     * Схлопываем очереди notifier'ов, начиная с самых больших, пока бюджет памяти не перестанет превышаться.
+     * Обычно это очереди недоступных подписчиков, доступные успевают выгребать свои.
+     */
+    private void enforceMemoryBudget() {
+        List<PushSubscriberNotifier> largestFirst = notifiers.values().stream()
+            .sorted(Comparator.comparingLong(PushSubscriberNotifier::getPendingBytes).reversed())
+            .collect(Collectors.toList());
+        for (PushSubscriberNotifier notifier : largestFirst) {
+            if (!memoryBudget.isExceeded() || notifier.getPendingBytes() == 0) {
+                break;
+            }
+            notifier.collapseToResync();
+            if (notifier.isImmediately() && notifier.isRunning()) {
+                notifier.onRunAsyncProcessNotify();
+            }
+        }
+    }
+
+    /**
+     * Создаем notifier'a или применяем к существующему новую конфигурацию.
      * Создаем задачу для периодического режима уведомления (PERIODICALLY_LISTENING).
      */
-    public void subscribe(PushSubscriberConfiguration configuration) {
+    public synchronized void subscribe(PushSubscriberConfiguration configuration) {
         if (configuration.isCanWork()) {
-
-            // Создаем notifier'a, если его не существовало или он упал
             PushSubscriberNotifier notifier = notifiers.get(configuration.getId());
-            if (notifier == null || !notifier.isRunning()) {
-                notifier = new PushSubscriberNotifier(configuration, SCHEDULED_POOL, IMMEDIATELY_POOL);
+            if (notifier == null) {
+                notifier = new PushSubscriberNotifier(configuration, schedulePool, DELIVERY_SCHEDULER, HOST_LIMITER,
+                    environment, memoryBudget, listeners,
+                    deliverySequences.computeIfAbsent(configuration.getId(), id -> new AtomicLong()),
+                    this::onSubscriberStopped);
                 notifiers.put(configuration.getId(), notifier);
                 if (configuration.isPeriodical()) {
                     notifier.onSchedule();
                 }
+                // Снимок отправляем сразу и в периодическом режиме, дальше изменения идут по расписанию
+                if (notifier.isSnapshotPending()) {
+                    notifier.onRunAsyncProcessNotify();
+                }
                 LOG.info.format("Subscription created and started for subscriber: %s, id: %s",
                     configuration.getSubscriberAlias(), configuration.getId());
             } else {
-                // Если notifier уже работает, перезапускаем с новыми параметрами
-                notifier.restart();
-                LOG.info.format("Subscription restarted for subscriber: %s, id: %s",
+                // Работающий или остановленный notifier сохраняет очередь, ревизию и соединения
+                notifier.reconfigure(configuration);
+                LOG.info.format("Subscription reconfigured for subscriber: %s, id: %s",
                     configuration.getSubscriberAlias(), configuration.getId());
             }
+            updateEntityIdCollection();
+            updateExpiry(configuration);
         } else {
             LOG.warn.format("Notifier can't be started for %s status %s forced disabled %s",
                 configuration.getSubscriberAlias(),
@@ -160,15 +334,169 @@ public class PushNotificationManager implements ServerComponent {
         }
     }
 
-    public void unsubscribe(PushSubscriberConfiguration configuration, boolean mayInterruptIfRunning) {
+    public synchronized void unsubscribe(PushSubscriberConfiguration configuration, boolean mayInterruptIfRunning) {
         PushSubscriberNotifier notifier = notifiers.remove(configuration.getId());
         if (notifier != null) {
             notifier.unsubscribe(mayInterruptIfRunning);
         }
+        expiryIndex.remove(configuration.getId());
+        updateEntityIdCollection();
+    }
+
+    /**
+     * Подписчик остановил подписку ответом STOP: убираем его notifier так же, как при отписке, чтобы повторная
+     * подписка создала новый notifier с открытыми соединениями
+     */
+    private synchronized void onSubscriberStopped(PushSubscriberNotifier notifier) {
+        Guid id = notifier.getConfiguration().getId();
+        if (notifiers.remove(id, notifier)) {
+            expiryIndex.remove(id);
+            updateEntityIdCollection();
+        }
+    }
+
+    /**
+     * Метаданные классов изменились (например, загружен плагин с новыми сущностями): сбрасываем общую иерархию
+     * классов и пересобираем по ней фильтры notifier'ов. Для вызова из кода, загружающего метаданные; без него
+     * иерархия перечитывается только при старте сервиса.
+     */
+    public void onClassMetadataChanged() {
+        environment.invalidateClassHierarchy();
+        notifiers.values().forEach(PushSubscriberNotifier::refreshSubscriptionFilter);
+        LOG.info.format("Push subscription filters rebuilt after class metadata change, notifiers: %s",
+            notifiers.size());
+    }
+
+    /**
+     * Регистрируем подписчика в том же процессе. Конфигурации с url {@value PushChangeListener#LOCAL_URL_PREFIX}имя
+     * будут уведомлять его напрямую, без http. Пакеты, не доставленные до регистрации, будут переданы при следующей
+     * попытке.
+     */
+    public void registerListener(@NotNull String name, @NotNull PushChangeListener listener) {
+        listeners.put(name, listener);
+        LOG.info.format("Push change listener registered: %s", name);
+    }
+
+    public void unregisterListener(@NotNull String name) {
+        if (listeners.remove(name) != null) {
+            LOG.info.format("Push change listener unregistered: %s", name);
+        }
+    }
+
+    /**
+     * Запоминаем срок действия подписки и при необходимости переносим проверку сроков на более ранний момент
+     */
+    private void updateExpiry(@NotNull PushSubscriberConfiguration configuration) {
+        expiryIndex.put(configuration.getId(), configuration.getExpireDateTime());
+        scheduleExpiryCheck();
+    }
+
+    /**
+     * Планируем проверку сроков на ближайшее истечение, если уже запланированная проверка не раньше
+     */
+    private synchronized void scheduleExpiryCheck() {
+        LocalDateTime next = expiryIndex.getNextExpireDateTime();
+        if (next == null
+            || expiryCheck != null && !expiryCheck.isDone() && !next.isBefore(expiryCheckDateTime)) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        long delayMillis = Math.min(Math.max(Duration.between(now, next).toMillis(), 0), MAX_EXPIRY_CHECK_DELAY_MILLIS);
+        scheduleExpiryCheck(now, delayMillis);
+    }
+
+    private synchronized void scheduleExpiryCheck(@NotNull LocalDateTime now, long delayMillis) {
+        if (expiryCheck != null) {
+            expiryCheck.cancel(false);
+        }
+        expiryCheckDateTime = now.plus(delayMillis, ChronoUnit.MILLIS);
+        expiryCheck = schedulePool.schedule(this::retireExpired, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Останавливаем notifier'ов с истекшим сроком подписки. Статусы всех истекших конфигураций сохраняются одной
+     * транзакцией. Выполняется под монитором менеджера, как и подписка: срок, продленный повторной подпиской, заново
+     * проверяется внутри транзакции, и такая подписка не останавливается.
+     */
+    private synchronized void retireExpired() {
+        expiryCheck = null;
+        LocalDateTime now = LocalDateTime.now();
+        List<Guid> expiredIds = expiryIndex.getExpired(now);
+        List<PushSubscriberNotifier> candidates = expiredIds.stream()
+            .map(notifiers::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        List<PushSubscriberNotifier> expired = new ArrayList<>(candidates.size());
+        if (!candidates.isEmpty()) {
+            try {
+                environment.runTransacted(() -> {
+                    expired.clear();
+                    for (PushSubscriberNotifier notifier : candidates) {
+                        PushSubscriberConfiguration configuration = notifier.getConfiguration();
+                        if (now.isAfter(configuration.getExpireDateTime())) {
+                            configuration.updating();
+                            configuration.setSubscriptionStatus(SubscriptionStatus.SUBSCRIPTION_EXPIRED);
+                            configuration.update();
+                            expired.add(notifier);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                LOG.error.format(e, "Can't save expiration of %s push subscriptions", candidates.size());
+                scheduleExpiryCheck(now, EXPIRY_RETRY_DELAY_MILLIS);
+                return;
+            }
+            expired.forEach(notifier -> {
+                notifiers.remove(notifier.getConfiguration().getId(), notifier);
+                notifier.unsubscribe(false);
+                LOG.warn.format("Subscription expired for subscriber: %s",
+                    notifier.getConfiguration().getSubscriberAlias());
+            });
+            updateEntityIdCollection();
+        }
+        // Сроки, продленные после выборки, остаются в индексе
+        expiredIds.forEach(id -> expiryIndex.removeIfExpired(id, now));
+        // Продленные без переподписки возвращаем в индекс с действующим сроком
+        candidates.stream()
+            .filter(notifier -> !expired.contains(notifier))
+            .forEach(notifier -> expiryIndex.put(notifier.getConfiguration().getId(),
+                notifier.getConfiguration().getExpireDateTime()));
+        scheduleExpiryCheck();
+    }
+
+    /**
+     * Id объектов собираются при флаше, только пока они нужны хотя бы одному подписчику
+     */
+    private void updateEntityIdCollection() {
+        collectEntityIds = notifiers.values().stream()
+            .anyMatch(notifier -> notifier.getConfiguration().isIncludeEntityIds());
     }
 
     @Nullable
     public Map<Guid, PushSubscriberNotifier> getNotifiers() {
         return Collections.unmodifiableMap(notifiers);
     }
+
+    /**
+     * Метрики push-уведомлений: потоки доставки, обработка флашей, метрики уведомителей
+     */
+    @NotNull
+    public PushMetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @NotNull
+    private List<PushNotifierMetricsSnapshot> getNotifierMetrics() {
+        return notifiers.values().stream()
+            .map(PushSubscriberNotifier::getMetricsSnapshot)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Состояние адаптивных лимитов одновременных доставок по хостам подписчиков
+     */
+    @NotNull
+    public List<HostConcurrencyLimiter.HostLimitState> getHostLimits() {
+        return HOST_LIMITER.getState();
+    }
 }
\ No newline at end of file
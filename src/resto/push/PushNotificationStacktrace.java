@@ -0,0 +1,97 @@
+package resto.push;
+
+import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.Type;
+import org.jetbrains.annotations.NotNull;
+import resto.db.ConstructorWithoutArgs;
+import resto.db.DataClass;
+import resto.db.Guid;
+import resto.db.PersistedEntity;
+import resto.db.RootCachedEntity;
+import resto.db.TableIndex;
+import resto.db.TableIndexes;
+import resto.db.loaders.NonCachingHibernateEntityLoader;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+/**
+ * Stacktrace ошибки push-уведомления. Хранится один раз на все эвенты с одинаковым stacktrace'ом,
+ * эвенты ссылаются на него по хэшу. Хэш уникален: параллельная вставка того же stacktrace'а отклоняется БД.
+ *
+ * @see PushNotificationEvent#getStacktraceHash()
+ */
+@Entity
+@DataClass(convert = false)
+@AccessType("field")
+@TableIndexes({
+    @TableIndex(columnNames = {"hash"}),
+})
+@RootCachedEntity(loader = NonCachingHibernateEntityLoader.class)
+public class PushNotificationStacktrace extends PersistedEntity {
+
+    /**
+     * SHA-256 текста stacktrace'а в hex
+     */
+    @Column(unique = true, nullable = false)
+    @NotNull
+    private String hash;
+
+    @Type(type = "text")
+    @NotNull
+    private String stacktrace;
+
+    /**
+     * Когда stacktrace встретился последний раз в новом эвенте. Stacktrace удаляется по сроку хранения от этой даты.
+     */
+    @NotNull
+    private Date date;
+
+    @SuppressWarnings("ConstantConditions")
+    @ConstructorWithoutArgs
+    protected PushNotificationStacktrace() {
+        hash = null;
+        stacktrace = null;
+        date = null;
+    }
+
+    public PushNotificationStacktrace(@NotNull String stacktrace) {
+        super(Guid.next());
+        this.hash = getHash(stacktrace);
+        this.stacktrace = stacktrace;
+        this.date = new Date();
+    }
+
+    @NotNull
+    public static String getHash(@NotNull String stacktrace) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(stacktrace.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NotNull
+    public String getHash() {
+        return hash;
+    }
+
+    @NotNull
+    public String getStacktrace() {
+        return stacktrace;
+    }
+
+    @NotNull
+    public Date getDate() {
+        return date;
+    }
+}
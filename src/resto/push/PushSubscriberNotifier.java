@@ -1,48 +1,50 @@
 package resto.push;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import org.glassfish.jersey.client.ClientProperties;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import resto.RestoEnvironment;
-import resto.RestoProperties;
-import resto.db.EntityManager;
-import resto.db.hibernate.HibernateSession;
-import resto.db.metadata.ClassResolver;
-import resto.db.metadata.ClassesRegistry;
-import resto.db.revisions.RevisionDao;
+import resto.db.Guid;
+import resto.push.configuration.PushOperationType;
 import resto.push.configuration.PushSubscriberConfiguration;
 import resto.push.configuration.PushSubscriptionEntity;
-import resto.push.configuration.SubscriptionStatus;
+import resto.push.delivery.DeliveryResult;
+import resto.push.delivery.HostConcurrencyLimiter;
+import resto.push.delivery.PushDeliveryBatch;
+import resto.push.delivery.PushDeliveryScheduler;
+import resto.push.delivery.PushEndpoint;
+import resto.push.delivery.TokenBucket;
 import resto.push.dto.ChangeStatisticDto;
+import resto.push.dto.PushNotificationResponseDto;
+import resto.push.jfr.PushCollectStatisticsEvent;
+import resto.push.jfr.PushDeliveryEvent;
+import resto.push.jfr.PushEventWriteEvent;
+import resto.push.jfr.PushRetryScheduledEvent;
+import resto.push.metrics.PushNotifierMetrics;
+import resto.push.metrics.PushNotifierMetricsSnapshot;
 import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.ChangeStatisticItem;
 import resto.utils.log4j.RestoLogger;
 
-import javax.ws.rs.ProcessingException;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Response;
-import javax.xml.bind.annotation.XmlAccessType;
-import javax.xml.bind.annotation.XmlAccessorType;
-import javax.xml.bind.annotation.XmlElement;
-import java.lang.reflect.Modifier;
-import java.time.LocalDateTime;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static resto.core.RestoServiceLocator.get;
-
 /**
  * Отправитель. Подгатавливает пакет данных и отправляет подписчику.
  * Задача по отправке уведомления ставится в пул потоков для асинхронной обработки данных.
@@ -58,7 +60,15 @@ public class PushSubscriberNotifier {
      * Конфиг подписчика
      */
     @NotNull
-    private PushSubscriberConfiguration configuration;
+    private volatile PushSubscriberConfiguration configuration;
+
+    /**
+     * Новая конфигурация, ожидающая применения. Применяется только владельцем флага {@link #busy}, чтобы не менять
+     * end-point'ы и лимиты во время доставки.
+     *
+     * @see #reconfigure(PushSubscriberConfiguration)
+     */
+    private final AtomicReference<PushSubscriberConfiguration> pendingConfiguration = new AtomicReference<>();
 
     /**
      * Статус уведомителя
@@ -66,10 +76,15 @@ public class PushSubscriberNotifier {
     @NotNull
     private volatile NotifierStatus status;
 
+    /**
+     * Подписка снята: статистика больше не копится
+     */
+    private volatile boolean unsubscribed;
+
     /**
      * Последняя успешно переданная ревизия
      */
-    private int lastRevisionTo;
+    private volatile int lastRevisionTo;
 
     /**
      * Очередь изменений FIFO
@@ -83,6 +98,41 @@ public class PushSubscriberNotifier {
     @NotNull
     private ChangeStatistic currentStatistic;
 
+    /**
+     * Подготовленный к отправке пакет. Фиксируется при первой попытке отправить пакет и переотправляется
+     * без изменений при повторных попытках, чтобы подписчик мог отбросить дубликат по ключу идемпотентности.
+     * Изменения, пришедшие во время повторных попыток, уходят следующим пакетом.
+     */
+    @Nullable
+    private PushDeliveryBatch preparedBatch;
+
+    /**
+     * Оценка памяти собранного пакета, учтенная в бюджете. Пакет принадлежит только этому уведомителю и держится в
+     * памяти до доставки, в том числе пока подписчик недоступен.
+     */
+    private final AtomicLong batchBytes = new AtomicLong();
+
+    /**
+     * Ограничение количества уведомлений в секунду, null - без ограничения
+     */
+    @Nullable
+    private TokenBucket pushRateLimit;
+
+    /**
+     * Ограничение объема уведомлений в секунду, null - без ограничения
+     */
+    @Nullable
+    private TokenBucket bytesRateLimit;
+
+    /**
+     * Номер последней подготовленной доставки. Общий для всех notifier'ов конфигурации в рамках запуска сервера,
+     * чтобы после переподписки ключ идемпотентности нового пакета не совпал с ключом старого.
+     *
+     * @see ChangeStatistic#sequenceNumber
+     */
+    @NotNull
+    private final AtomicLong deliverySequence;
+
     /**
      * Номер текущей попытки отправить сообщение
      */
@@ -104,10 +154,34 @@ public class PushSubscriberNotifier {
     private AtomicBoolean busy;
 
     /**
-     * Пул выполнения задач по отправке уведомления
+     * Планировщик задач по отправке уведомления
+     */
+    @NotNull
+    private PushDeliveryScheduler deliveryScheduler;
+
+    /**
+     * Ограничение одновременных доставок на хост подписчика
      */
     @NotNull
-    private ExecutorService immediatelyPool;
+    private HostConcurrencyLimiter hostLimiter;
+
+    /**
+     * End-point'ы подписчика: основной и резервные в порядке приоритета
+     */
+    @NotNull
+    private List<PushEndpoint> endpoints;
+
+    /**
+     * Хост, разрешение на доставку к которому получено при запуске попытки и еще не использовано
+     */
+    @Nullable
+    private String heldPermitHost;
+
+    /**
+     * Метрики уведомителя
+     */
+    @NotNull
+    private final PushNotifierMetrics metrics = new PushNotifierMetrics();
 
     /**
      * Пул для создания периодических уведомлений.
@@ -122,36 +196,234 @@ public class PushSubscriberNotifier {
     private ScheduledFuture<?> scheduledFuture;
 
     /**
-     * Подписка на классы с учетом иерархии.
-     * Если множество пустое - подписаны на все.
+     * Период запланированной задачи (в секундах)
+     */
+    private int scheduledPeriodSec;
+
+    /**
+     * Подписка на классы с учетом иерархии, типов изменений, полей и порогов
+     */
+    @NotNull
+    private volatile SubscriptionFilter subscriptionFilter;
+
+    /**
+     * Подписанные сущности, по которым собран фильтр
+     *
+     * @see #getSubscriptionKey(List)
+     */
+    @NotNull
+    private String subscriptionKey;
+
+    /**
+     * Накопленные в очереди изменения классов с порогом уведомления
+     */
+    private final Map<String, AtomicInteger> pendingCounts = new ConcurrentHashMap<>();
+
+    /**
+     * В очереди есть изменения, о которых нужно уведомить подписчика
+     */
+    private volatile boolean thresholdReached;
+
+    /**
+     * В очереди есть изменения, о которых нужно уведомить подписчика сразу: любые для немедленной подписки, только
+     * срочных классов для периодической
+     */
+    private volatile boolean immediatePending;
+
+    /**
+     * Сервисы сервера
+     */
+    @NotNull
+    private final PushEnvironment environment;
+
+    /**
+     * Эвенты об ошибках уведомления
+     */
+    @NotNull
+    private final PushEventLog eventLog;
+
+    /**
+     * Общий бюджет памяти под очереди уведомителей
+     */
+    @NotNull
+    private final PushMemoryBudget memoryBudget;
+
+    /**
+     * Признак пересинхронизации, который нужно передать подписчику (null - очередь не схлопывалась)
+     */
+    private final AtomicReference<ResyncMarker> resync = new AtomicReference<>();
+
+    /**
+     * Признак пересинхронизации, попавший в текущий пакет
+     */
+    @Nullable
+    private ResyncMarker batchResync;
+
+    /**
+     * Первым пакетом нужно отправить снимок количеств объектов
+     *
+     * @see PushSubscriberConfiguration#isBootstrapSnapshot()
+     */
+    private volatile boolean snapshotPending;
+
+    /**
+     * Ревизия отправленного снимка: изменения флашей до нее включительно уже учтены в снимке
+     */
+    private int snapshotRevision;
+
+    /**
+     * Ревизия последнего флаша, статистику которого получил notifier (в том числе не прошедшую фильтр)
+     */
+    private volatile int lastSeenRevision;
+
+    /**
+     * Зарегистрированные подписчики в том же процессе по именам
+     */
+    @NotNull
+    private final Map<String, PushChangeListener> listeners;
+
+    /**
+     * Имя подписчика в том же процессе, если url подписчика вида {@value PushChangeListener#LOCAL_URL_PREFIX}имя,
+     * иначе null
+     */
+    @Nullable
+    private volatile String localListenerName;
+
+    /**
+     * Id запуска сервера
      */
-    private Set<String> subscriptionClasses;
+    @NotNull
+    private final Guid instanceId;
+
+    /**
+     * Вызывается, когда подписчик сам остановил подписку ответом STOP
+     */
+    @NotNull
+    private final Consumer<PushSubscriberNotifier> stopListener;
 
     public PushSubscriberNotifier(
         @NotNull PushSubscriberConfiguration configuration,
         @NotNull ScheduledExecutorService schedulePool,
-        @NotNull ExecutorService immediatelyPool
+        @NotNull PushDeliveryScheduler deliveryScheduler,
+        @NotNull HostConcurrencyLimiter hostLimiter
+    ) {
+        this(configuration, schedulePool, deliveryScheduler, hostLimiter, ServerPushEnvironment.INSTANCE);
+    }
+
+    PushSubscriberNotifier(
+        @NotNull PushSubscriberConfiguration configuration,
+        @NotNull ScheduledExecutorService schedulePool,
+        @NotNull PushDeliveryScheduler deliveryScheduler,
+        @NotNull HostConcurrencyLimiter hostLimiter,
+        @NotNull PushEnvironment environment
+    ) {
+        this(configuration, schedulePool, deliveryScheduler, hostLimiter, environment, PushMemoryBudget.UNLIMITED);
+    }
+
+    PushSubscriberNotifier(
+        @NotNull PushSubscriberConfiguration configuration,
+        @NotNull ScheduledExecutorService schedulePool,
+        @NotNull PushDeliveryScheduler deliveryScheduler,
+        @NotNull HostConcurrencyLimiter hostLimiter,
+        @NotNull PushEnvironment environment,
+        @NotNull PushMemoryBudget memoryBudget
+    ) {
+        this(configuration, schedulePool, deliveryScheduler, hostLimiter, environment, memoryBudget,
+            Collections.emptyMap(), new AtomicLong(), notifier -> {});
+    }
+
+    PushSubscriberNotifier(
+        @NotNull PushSubscriberConfiguration configuration,
+        @NotNull ScheduledExecutorService schedulePool,
+        @NotNull PushDeliveryScheduler deliveryScheduler,
+        @NotNull HostConcurrencyLimiter hostLimiter,
+        @NotNull PushEnvironment environment,
+        @NotNull PushMemoryBudget memoryBudget,
+        @NotNull Map<String, PushChangeListener> listeners,
+        @NotNull AtomicLong deliverySequence,
+        @NotNull Consumer<PushSubscriberNotifier> stopListener
     ) {
         this.configuration = configuration;
+        this.stopListener = stopListener;
+        this.listeners = listeners;
+        this.deliverySequence = deliverySequence;
+        this.localListenerName = getLocalListenerName(configuration.getSubscriberUrl());
+        this.environment = environment;
+        this.memoryBudget = memoryBudget;
+        this.eventLog = new PushEventLog(configuration, environment);
+        this.instanceId = environment.getInstanceId();
         this.schedulePool = schedulePool;
-        this.immediatelyPool = immediatelyPool;
+        this.deliveryScheduler = deliveryScheduler;
+        this.hostLimiter = hostLimiter;
+        this.endpoints = buildEndpoints(null);
+        initRateLimits();
         this.statistics = new ConcurrentLinkedQueue<>();
-        this.subscriptionClasses = getSubclasses(this.configuration.getSubscriptionEntities());
+        this.subscriptionFilter = SubscriptionFilter.compile(configuration.getSubscriptionEntities(), environment);
+        this.subscriptionKey = getSubscriptionKey(configuration.getSubscriptionEntities());
         this.status = NotifierStatus.RUNNING;
         this.busy = new AtomicBoolean(false);
-        this.currentStatistic = new ChangeStatistic(configuration.getId(), get(RestoEnvironment.class).getInstanceId());
+        this.currentStatistic = new ChangeStatistic(configuration.getId(), instanceId);
         this.currentAttemptIntervalMinutes = 1;
+        this.snapshotPending = configuration.isBootstrapSnapshot();
     }
 
     /**
-     * Добавляем статистику в конец очереди FIFO
+     * Добавляем статистику в конец очереди FIFO. Статистика без подписанных изменений в очередь не попадает.
+     * Изменения классов с порогом накапливаются, пока порог не будет достигнут.
      *
      * @param statistic - статистика измененных данных
+     *
+     * @return нужно ли уведомить подписчика сразу, не дожидаясь периодической отправки
      */
-    void addStatistic(ChangeStatistic statistic) {
-        if (statistic != null) {
-            statistics.offer(statistic);
+    boolean addStatistic(ChangeStatistic statistic) {
+        if (statistic == null) {
+            return false;
+        }
+        if (statistic.getRevisionTo() > lastSeenRevision) {
+            lastSeenRevision = statistic.getRevisionTo();
+        }
+        SubscriptionFilter filter = subscriptionFilter;
+        boolean notify = filter.isPassAll();
+        boolean immediate = notify && isImmediately();
+        if (!notify) {
+            boolean subscribed = false;
+            for (Map.Entry<String, ChangeStatisticItem> entry : statistic.getClassStatistics().entrySet()) {
+                int changedCount = filter.getChangedCount(entry.getKey(), entry.getValue());
+                if (changedCount == 0) {
+                    continue;
+                }
+                subscribed = true;
+                int minChangedCount = filter.getMinChangedCount(entry.getKey());
+                if (minChangedCount <= 1
+                    || pendingCounts.computeIfAbsent(entry.getKey(), className -> new AtomicInteger())
+                           .addAndGet(changedCount) >= minChangedCount) {
+                    notify = true;
+                    // В периодической подписке сразу уведомляем только о срочных классах
+                    immediate |= isImmediately() || isPeriodical() && filter.isImmediate(entry.getKey());
+                }
+            }
+            if (!subscribed) {
+                return false;
+            }
+        }
+        long bytes = statistic.getEstimatedHeapBytes();
+        if (statistic.onQueued()) {
+            memoryBudget.reserve(bytes);
+        }
+        statistics.offer(statistic);
+        metrics.onStatisticQueued(bytes);
+        if (unsubscribed) {
+            // Отписка прошла во время добавления, очередь уже никто не выгребет
+            discardPending();
+            return false;
+        }
+        if (notify) {
+            thresholdReached = true;
         }
+        if (immediate) {
+            immediatePending = true;
+        }
+        return immediate;
     }
 
     /**
@@ -159,6 +431,7 @@ public class PushSubscriberNotifier {
      * уведомления
      */
     public void onSchedule() {
+        scheduledPeriodSec = configuration.getNotificationPeriodSec();
         scheduledFuture = schedulePool.scheduleAtFixedRate(
             this::onRunAsyncProcessNotify,
             configuration.getNotificationPeriodSec(),
@@ -173,11 +446,7 @@ public class PushSubscriberNotifier {
         if (isRunning()) {
             // Если notifier еще не завершил предыдущую попытку, то не создаем уведомление
             if (busy.compareAndSet(false, true)) {
-                CompletableFuture.runAsync(this::processing, immediatelyPool)
-                    .exceptionally((throwable) -> {
-                        onException(throwable);
-                        return null;
-                    });
+                submitProcessing();
             } else {
                 LOG.debug.format("Notifier started but busy for subscriber: %s", configuration.getSubscriberAlias());
             }
@@ -191,6 +460,49 @@ public class PushSubscriberNotifier {
         }
     }
 
+    /**
+     * Ставим попытку уведомления в очередь подписчика в планировщике доставки
+     */
+    private void submitProcessing() {
+        deliveryScheduler.submit(configuration.getId(), configuration.getDeliveryWeight(), this::runProcessing);
+    }
+
+    /**
+     * Выполняем попытку уведомления в пределах лимита одновременных доставок на хост подписчика.
+     * Если лимит исчерпан, попытка не занимает поток и будет поставлена заново, когда место освободится.
+     */
+    private void runProcessing() {
+        // Конфигурация, пришедшая пока notifier был занят, применяется перед попыткой
+        applyPendingConfiguration();
+        // Подписчик в том же процессе не занимает место в лимите хостов
+        if (localListenerName != null) {
+            try {
+                processing();
+            } catch (Throwable t) {
+                onException(t);
+            }
+            return;
+        }
+        String host = getCandidateEndpoints().get(0).getHostKey();
+        if (!hostLimiter.tryAcquire(host, this::submitProcessing)) {
+            LOG.debug.format("Push delivery deferred by host concurrency limit for subscriber: %s, host: %s",
+                configuration.getSubscriberAlias(), host);
+            return;
+        }
+        heldPermitHost = host;
+        try {
+            processing();
+        } catch (Throwable t) {
+            onException(t);
+        } finally {
+            // Разрешение не пригодилось: данных не было или доставка ушла на другие хосты
+            if (heldPermitHost != null) {
+                hostLimiter.release(heldPermitHost, -1, false);
+                heldPermitHost = null;
+            }
+        }
+    }
+
     /**
      * Процесс попытки уведомления подписчика
      */
@@ -199,126 +511,568 @@ public class PushSubscriberNotifier {
         // Если нас отключили принудительно, то ничего не делаем и завершаем задачу
         if (configuration.isForcedDisabled()) {
             LOG.debug.format("Subscriber forced disabled for subscriber: %s", configuration.getSubscriberAlias());
+            // Очередь сохраняется до возобновления подписки, ее размер ограничивает бюджет памяти
             status = NotifierStatus.STOPPED;
-            busy.set(false);
-            return;
-        }
-        // Проверяем срок действия подписки
-        if (checkSubscriptionExpired()) {
-            LOG.warn.format("Subscription expired for subscriber: %s", configuration.getSubscriberAlias());
-            status = NotifierStatus.STOPPED;
-            busy.set(false);
+            releaseBusy();
             return;
         }
-        // Если очередь уже пуста и нет статистики для повторной отправки, то ничего не делаем и завершаем задачу
-        if (statistics.isEmpty() && currentStatistic.getClassStatistics().isEmpty()) {
+        // Если очередь уже пуста или не набрала порога и нет статистики для повторной отправки, то ничего не делаем
+        // и завершаем задачу
+        if ((statistics.isEmpty() || !thresholdReached) && currentStatistic.getClassStatistics().isEmpty()
+            && resync.get() == null && !snapshotPending) {
             LOG.debug.format("No data to push message for subscriber: %s", configuration.getSubscriberAlias());
-            busy.set(false);
+            releaseBusy();
             return;
         }
 
-        // Собираем данные
-        currentStatistic = collectStatistics();
+        // Собираем данные, если нет пакета, ожидающего повторной отправки
+        if (preparedBatch == null) {
+            currentStatistic = snapshotPending ? collectSnapshot() : collectStatistics();
+            if (!currentStatistic.getClassStatistics().isEmpty() || batchResync != null
+                || currentStatistic.isSnapshot()) {
+                currentStatistic.assignDelivery(deliverySequence.incrementAndGet());
+                preparedBatch = localListenerName != null
+                    ? PushDeliveryBatch.inProcess(currentStatistic)
+                    : PushDeliveryBatch.prepare(currentStatistic, configuration.getMaxPayloadBytes(),
+                        configuration.getMediaType());
+                reserveBatchBytes(currentStatistic.getEstimatedHeapBytes());
+            }
+        }
 
         // Отправляем данные
-        if (pushMessage(currentStatistic)) {
+        PushResult pushResult = pushMessage(currentStatistic);
+        if (pushResult == PushResult.DEFERRED) {
+            // Попытка отложена ограничением частоты, notifier остается занятым до ее выполнения
+            return;
+        }
+        if (pushResult == PushResult.DELIVERED) {
             // При успешном выполнении запоминаем переданную ревизию
+            if (currentStatistic.getRevisionTo() > lastRevisionTo) {
+                metrics.onRevisionAdvanced();
+            }
+            if (!currentStatistic.getClassStatistics().isEmpty()) {
+                metrics.recordAcknowledged(currentStatistic.getFlushNanos(), currentStatistic.getRevisionFrom(),
+                    currentStatistic.getRevisionTo(), currentStatistic.getSequenceNumber(), currentAttempt);
+            }
             lastRevisionTo = currentStatistic.getRevisionTo();
+            // Признак пересинхронизации доставлен, если очередь не схлопывалась заново
+            if (batchResync != null) {
+                resync.compareAndSet(batchResync, null);
+            }
             // Инитиализируем переменные
             init();
+            // Изменения, накопленные за время повторных попыток, отправляем сразу
+            if ((!statistics.isEmpty() || resync.get() != null) && immediatePending) {
+                onRunAsyncProcessNotify();
+            }
         } else {
             // Проверяем не исчерпали мы попыток или notifier'a не отключили пока ждали таймаут
             currentAttempt++;
-            int maxTryAttempts = get(RestoProperties.class).getPushNotificationMaxTryAttempts();
+            int maxTryAttempts = environment.getMaxTryAttempts();
             if (currentAttempt < maxTryAttempts && configuration.isCanWork()) {
                 int period = getNextAttemptIntervalMinutes();
                 LOG.info.format("Retry push message for subscriber: %s, attempt: %s, timeout minutes: %s",
                     configuration.getSubscriberAlias(), currentAttempt, period);
-                // При неудачной попытки отправить статистику ставим задачу с новой задержкой
-                schedulePool.schedule(this::processing, period, TimeUnit.MINUTES);
+                // При неудачной попытки отправить статистику ставим задачу с новой задержкой.
+                // Сама попытка выполняется в планировщике доставки, а не в потоке пула расписаний
+                schedulePool.schedule(this::submitProcessing, period, TimeUnit.MINUTES);
+                PushRetryScheduledEvent event = new PushRetryScheduledEvent();
+                if (event.shouldCommit()) {
+                    event.subscriberAlias = configuration.getSubscriberAlias();
+                    event.revisionFrom = currentStatistic.getRevisionFrom();
+                    event.revisionTo = currentStatistic.getRevisionTo();
+                    event.attempt = currentAttempt;
+                    event.delay = TimeUnit.MINUTES.toMillis(period);
+                    event.commit();
+                }
             } else {
                 status = NotifierStatus.STOPPED;
+                // Пакет и очередь остаются неотправленными: если подписку возобновят, пакет будет отправлен первым
+                releaseBusy();
             }
         }
     }
 
     /**
-     * Отправка уведомления подписчику.
+     * Отправка уведомления подписчику. Части пакета отправляются по порядку в пределах ограничений частоты.
      *
      * @param statistic - данные изменений
      *
-     * @return true - если успешно уведомил
+     * @return DELIVERED - если успешно уведомил
      */
-    private boolean pushMessage(ChangeStatistic statistic) {
-        if (statistic.getClassStatistics().isEmpty()) {
+    private PushResult pushMessage(ChangeStatistic statistic) {
+        if (statistic.getClassStatistics().isEmpty() && statistic.getResyncSinceRevision() == null
+            && !statistic.isSnapshot()) {
             LOG.debug.format("No data to push message after filtering for subscriber: %s",
                 configuration.getSubscriberAlias());
-            return true;
-        }
-        Client client = ClientBuilder.newClient();
-        WebTarget target = client.target(configuration.getSubscriberUrl())
-            .property(ClientProperties.CONNECT_TIMEOUT, configuration.getConnectTimeoutMillis())
-            .property(ClientProperties.READ_TIMEOUT, get(RestoProperties.class).getPushNotificationReadTimeoutMillis());
-        Entity<ChangeStatisticDto> requestBody = Entity.entity(ChangeStatisticDto.toDto(statistic),
-            configuration.getMediaType());
+            return PushResult.DELIVERED;
+        }
+        String listenerName = localListenerName;
+        if (listenerName != null) {
+            return notifyListener(listenerName, statistic);
+        }
+        PushDeliveryBatch batch = preparedBatch;
+        if (batch.isInProcess()) {
+            // Пока пакет ждал повторной попытки, подписчик сменил url на http
+            batch = PushDeliveryBatch.prepare(statistic, configuration.getMaxPayloadBytes(),
+                configuration.getMediaType());
+            preparedBatch = batch;
+        }
+        while (batch.hasNextChunk()) {
+            long waitNanos = reserveRate(batch.getNextChunkSize());
+            if (waitNanos > 0) {
+                LOG.debug.format("Push message rate limited for subscriber: %s, delay millis: %s",
+                    configuration.getSubscriberAlias(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                schedulePool.schedule(this::submitProcessing, waitNanos, TimeUnit.NANOSECONDS);
+                return PushResult.DEFERRED;
+            }
+            Entity<ChangeStatisticDto> requestBody = Entity.entity(batch.getNextChunk(), configuration.getMediaType());
+            LOG.debug.format("Try push message for subscriber: %s, sequence number: %s, chunk: %s of %s",
+                configuration.getSubscriberAlias(), statistic.getSequenceNumber(), batch.getNextChunkIndex() + 1,
+                batch.getChunkCount());
+            DeliveryResult result = deliver(requestBody, batch.getNextChunkDeliveryId(), statistic);
+            PushNotificationResponseDto responseDto = result.getResponse();
+            if (responseDto == null) {
+                return PushResult.FAILED;
+            }
+            switch (responseDto.getResult()) {
+                // Если пришло сообщение об успешном уведомлении, логируем его
+                case "SUCCESS":
+                    metrics.recordSuccessResponse();
+                    LOG.debug.format("Successful push message for subscriber %s, url: %s",
+                        configuration.getSubscriberAlias(), result.getEndpoint().getUrl());
+                    break;
+                // Если пришло сообщение об ошибке, то логируем событие, но продолжаем уведомлять
+                case "ERROR":
+                    metrics.recordErrorResponse();
+                    LOG.info.format("Notifier received ERROR response from subscriber: %s, with message: %s",
+                        configuration.getSubscriberAlias(), responseDto.getMessage());
+                    createEvent(responseDto.getMessage(), statistic);
+                    break;
+                // Если пришло сообщение об остановке подписки или неизвестный статус, то логируем событие и
+                // прекращаем подписку
+                case "STOP":
+                default:
+                    metrics.recordStopResponse();
+                    LOG.info.format("Notifier received %s response from subscriber: %s, with message: %s",
+                        responseDto.getResult(), configuration.getSubscriberAlias(), responseDto.getMessage());
+                    createEvent(responseDto.getMessage(), statistic);
+                    unsubscribe(true);
+                    stopListener.accept(this);
+                    return PushResult.DELIVERED;
+            }
+            batch.acknowledgeChunk();
+        }
+        return PushResult.DELIVERED;
+    }
+
+    /**
+     * Уведомление подписчика в том же процессе. Статистика передается без сериализации и копирования, ошибка
+     * обработки приводит к повторной попытке, как недоступность end-point'а.
+     */
+    private PushResult notifyListener(@NotNull String listenerName, @NotNull ChangeStatistic statistic) {
+        PushChangeListener listener = listeners.get(listenerName);
+        if (listener == null) {
+            LOG.info.format("Push change listener '%s' is not registered for subscriber: %s",
+                listenerName, configuration.getSubscriberAlias());
+            createEvent("Push change listener is not registered: " + listenerName, statistic);
+            return PushResult.FAILED;
+        }
+        long startNanos = System.nanoTime();
         try {
-            LOG.debug.format("Try push message for subscriber: %s", configuration.getSubscriberAlias());
-            Response response = target.request().buildPost(requestBody).invoke();
-            if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
-                // Если пришел http-response, то читаем статус из стандартизированного body
-                PushNotificationResponseDto responseDto = response.readEntity(PushNotificationResponseDto.class);
-                switch (responseDto.result) {
-                    // Если пришло сообщение об успешном уведомлении, логируем его
-                    case "SUCCESS":
-                        LOG.debug.format("Successful push message for subscriber %s",
-                            configuration.getSubscriberAlias());
-                        return true;
-                    // Если пришло сообщение об ошибке, то логируем событие, но продолжаем уведомлять
-                    case "ERROR":
-                        LOG.info.format("Notifier received ERROR response from subscriber: %s, with message: %s",
-                            configuration.getSubscriberAlias(), responseDto.message);
-                        createEvent(responseDto.message, statistic);
-                        return true;
-                    // Если пришло сообщение об остановке подписки или неизвестный статус, то логируем событие и
-                    // прекращаем подписку
-                    case "STOP":
-                    default:
-                        LOG.info.format("Notifier received %s response from subscriber: %s, with message: %s",
-                            responseDto.result, configuration.getSubscriberAlias(), responseDto.message);
-                        createEvent(responseDto.message, statistic);
-                        unsubscribe(true);
-                        return true;
+            listener.onChanges(statistic.asReadOnly());
+        } catch (RuntimeException e) {
+            metrics.recordRequest(System.nanoTime() - startNanos, false);
+            LOG.error.format(e, "Push change listener '%s' failed for subscriber: %s",
+                listenerName, configuration.getSubscriberAlias());
+            createEvent(e, statistic);
+            return PushResult.FAILED;
+        }
+        metrics.recordRequest(System.nanoTime() - startNanos, true);
+        metrics.recordSuccessResponse();
+        return PushResult.DELIVERED;
+    }
+
+    @Nullable
+    private static String getLocalListenerName(@NotNull String subscriberUrl) {
+        return subscriberUrl.startsWith(PushChangeListener.LOCAL_URL_PREFIX)
+            ? subscriberUrl.substring(PushChangeListener.LOCAL_URL_PREFIX.length())
+            : null;
+    }
+
+    /**
+     * Резервируем место в ограничениях частоты уведомлений
+     *
+     * @param bytes - оценка размера уведомления
+     *
+     * @return 0 - если место зарезервировано, иначе время ожидания в наносекундах
+     */
+    private long reserveRate(int bytes) {
+        TokenBucket pushes = pushRateLimit;
+        TokenBucket volume = bytesRateLimit;
+        long waitNanos = Math.max(
+            pushes == null ? 0 : pushes.getWaitNanos(1),
+            volume == null ? 0 : volume.getWaitNanos(bytes));
+        if (waitNanos == 0) {
+            if (pushes != null) {
+                pushes.consume(1);
+            }
+            if (volume != null) {
+                volume.consume(bytes);
+            }
+        }
+        return waitNanos;
+    }
+
+    private void initRateLimits() {
+        pushRateLimit = getRateLimit(pushRateLimit, configuration.getMaxPushesPerSecond());
+        bytesRateLimit = getRateLimit(bytesRateLimit, configuration.getMaxBytesPerSecond());
+    }
+
+    /**
+     * Ограничение заданной частоты. Существующее ограничение той же частоты сохраняется вместе с накопленным запасом.
+     *
+     * @return null - без ограничения
+     */
+    @Nullable
+    private static TokenBucket getRateLimit(@Nullable TokenBucket current, double tokensPerSecond) {
+        if (tokensPerSecond <= 0) {
+            return null;
+        }
+        return current != null && current.getTokensPerSecond() == tokensPerSecond
+            ? current
+            : new TokenBucket(tokensPerSecond);
+    }
+
+    /**
+     * Доставка уведомления с переключением на резервные end-point'ы.
+     * В режиме дублирования запрос на следующий end-point отправляется, если текущий не ответил за p95 своих
+     * задержек, и побеждает первый полученный стандартизированный ответ.
+     *
+     * @return результат последней попытки
+     */
+    @NotNull
+    private DeliveryResult deliver(
+        Entity<ChangeStatisticDto> requestBody, String idempotencyKey, ChangeStatistic statistic
+    ) {
+        List<PushEndpoint> candidates = getCandidateEndpoints();
+        List<PushEndpoint> tried = new ArrayList<>(candidates.size());
+        DeliveryResult result = null;
+        if (configuration.isHedgedDelivery() && candidates.size() > 1) {
+            long hedgeDelayNanos = candidates.get(0).getHedgeDelayNanos();
+            if (hedgeDelayNanos > 0) {
+                result = deliverHedged(candidates.get(0), candidates.get(1), hedgeDelayNanos, requestBody,
+                    idempotencyKey, statistic, tried);
+                if (result.isAcknowledged()) {
+                    return result;
                 }
-            } else {
-                LOG.error.format("Bad http response from subscriber %s, code: %s, reason: %s, body: %s",
-                    configuration.getSubscriberAlias(),
-                    response.getStatusInfo().getStatusCode(),
-                    response.getStatusInfo().getReasonPhrase(),
-                    response.readEntity(String.class));
-                createEvent(response.getStatusInfo().getReasonPhrase(), statistic);
+                onDeliveryFailure(result, statistic);
             }
-        } catch (ProcessingException e) {
-            LOG.error.format(e, "Error occurred while processing subscriber %s", configuration.getSubscriberAlias());
-            createEvent(e, statistic);
         }
-        return false;
+        for (PushEndpoint endpoint : candidates) {
+            if (tried.contains(endpoint)) {
+                continue;
+            }
+            if (result != null) {
+                LOG.info.format("Failover push message for subscriber: %s to %s",
+                    configuration.getSubscriberAlias(), endpoint.getUrl());
+            }
+            result = send(endpoint, requestBody, idempotencyKey, statistic);
+            if (result.isAcknowledged()) {
+                return result;
+            }
+            onDeliveryFailure(result, statistic);
+        }
+        return result;
+    }
+
+    private DeliveryResult deliverHedged(
+        PushEndpoint primary,
+        PushEndpoint secondary,
+        long hedgeDelayNanos,
+        Entity<ChangeStatisticDto> requestBody,
+        String idempotencyKey,
+        ChangeStatistic statistic,
+        List<PushEndpoint> tried
+    ) {
+        tried.add(primary);
+        CompletableFuture<DeliveryResult> primaryResult = sendAsync(primary, requestBody, idempotencyKey, statistic);
+        try {
+            return primaryResult.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOG.debug.format("Hedged push message for subscriber: %s to %s",
+                configuration.getSubscriberAlias(), secondary.getUrl());
+            tried.add(secondary);
+            CompletableFuture<DeliveryResult> secondaryResult =
+                sendAsync(secondary, requestBody, idempotencyKey, statistic);
+            return firstAcknowledged(primary, primaryResult, secondary, secondaryResult);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeliveryResult.failed(primary, e, 0);
+        } catch (ExecutionException e) {
+            // sendAsync всегда завершается результатом
+            return DeliveryResult.failed(primary, e, 0);
+        }
+    }
+
+    /**
+     * Первый стандартизированный ответ, либо результат последней неудачной попытки. Исключение или пустой результат
+     * запроса считаются неудачей. Ожидание ограничено таймаутами соединения и чтения: запрос на резервный end-point
+     * отправлен последним и дольше них не выполняется.
+     */
+    private DeliveryResult firstAcknowledged(
+        PushEndpoint primary,
+        CompletableFuture<DeliveryResult> first,
+        PushEndpoint secondary,
+        CompletableFuture<DeliveryResult> second
+    ) {
+        CompletableFuture<DeliveryResult> winner = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        first.whenComplete(completeWinner(primary, winner, pending));
+        second.whenComplete(completeWinner(secondary, winner, pending));
+        long waitMillis = (long) configuration.getConnectTimeoutMillis() + environment.getReadTimeoutMillis();
+        try {
+            return winner.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn.format("Hedged push message for subscriber: %s got no response in %s millis",
+                configuration.getSubscriberAlias(), waitMillis);
+            return DeliveryResult.failed(secondary, e, TimeUnit.MILLISECONDS.toNanos(waitMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeliveryResult.failed(secondary, e, 0);
+        } catch (ExecutionException e) {
+            // winner завершается только результатом
+            return DeliveryResult.failed(secondary, e.getCause(), 0);
+        }
+    }
+
+    private static BiConsumer<DeliveryResult, Throwable> completeWinner(
+        PushEndpoint endpoint,
+        CompletableFuture<DeliveryResult> winner,
+        AtomicInteger pending
+    ) {
+        return (result, t) -> {
+            DeliveryResult completed = result != null ? result : failedResult(endpoint, t);
+            if (completed.isAcknowledged() || pending.decrementAndGet() == 0) {
+                winner.complete(completed);
+            }
+        };
+    }
+
+    /**
+     * Результат запроса, завершившегося исключением или без результата
+     */
+    private static DeliveryResult failedResult(PushEndpoint endpoint, @Nullable Throwable t) {
+        return DeliveryResult.failed(endpoint, t != null ? t : new IllegalStateException("Empty delivery result"), 0);
+    }
+
+    private DeliveryResult send(
+        PushEndpoint endpoint, Entity<ChangeStatisticDto> requestBody, String idempotencyKey, ChangeStatistic statistic
+    ) {
+        acquireHost(endpoint);
+        PushDeliveryEvent event = new PushDeliveryEvent();
+        event.begin();
+        DeliveryResult result = endpoint.send(requestBody, idempotencyKey, configuration);
+        onRequestCompleted(result, statistic, event);
+        return result;
+    }
+
+    private CompletableFuture<DeliveryResult> sendAsync(
+        PushEndpoint endpoint, Entity<ChangeStatisticDto> requestBody, String idempotencyKey, ChangeStatistic statistic
+    ) {
+        acquireHost(endpoint);
+        PushDeliveryEvent event = new PushDeliveryEvent();
+        event.begin();
+        return endpoint.sendAsync(requestBody, idempotencyKey, configuration)
+            .handle((result, t) -> result != null ? result : failedResult(endpoint, t))
+            .whenComplete((result, t) -> onRequestCompleted(result, statistic, event));
+    }
+
+    private void onRequestCompleted(DeliveryResult result, ChangeStatistic statistic, PushDeliveryEvent event) {
+        hostLimiter.release(result.getEndpoint().getHostKey(), result.getRoundTripNanos(), !result.isAcknowledged());
+        metrics.recordRequest(result.getRoundTripNanos(), result.isAcknowledged());
+        event.end();
+        if (event.shouldCommit()) {
+            event.subscriberAlias = configuration.getSubscriberAlias();
+            event.url = result.getEndpoint().getUrl();
+            event.revisionFrom = statistic.getRevisionFrom();
+            event.revisionTo = statistic.getRevisionTo();
+            event.sequenceNumber = statistic.getSequenceNumber();
+            event.classCount = statistic.getClassStatistics().size();
+            event.acknowledged = result.isAcknowledged();
+            event.commit();
+        }
+    }
+
+    /**
+     * Используем разрешение, полученное при запуске попытки, либо занимаем место сверх лимита:
+     * переключение на резервный хост не должно ждать в очереди
+     */
+    private void acquireHost(PushEndpoint endpoint) {
+        if (endpoint.getHostKey().equals(heldPermitHost)) {
+            heldPermitHost = null;
+        } else {
+            hostLimiter.acquire(endpoint.getHostKey());
+        }
+    }
+
+    private void onDeliveryFailure(DeliveryResult result, ChangeStatistic statistic) {
+        result.getEndpoint().markDown();
+        Throwable failure = result.getFailure();
+        if (failure != null) {
+            createEvent(failure, statistic);
+        } else {
+            createEvent(String.valueOf(result.getFailureMessage()), statistic);
+        }
+    }
+
+    /**
+     * End-point'ы в порядке опроса: сначала доступные, затем недавно отказавшие
+     */
+    private List<PushEndpoint> getCandidateEndpoints() {
+        List<PushEndpoint> current = endpoints;
+        List<PushEndpoint> candidates = new ArrayList<>(current.size());
+        current.stream().filter(PushEndpoint::isAvailable).forEach(candidates::add);
+        current.stream().filter(endpoint -> !endpoint.isAvailable()).forEach(candidates::add);
+        return candidates;
+    }
+
+    /**
+     * Строим список end-point'ов по конфигурации, сохраняя клиентов и статистику задержек существующих
+     */
+    private List<PushEndpoint> buildEndpoints(@Nullable List<PushEndpoint> previous) {
+        List<String> urls = new ArrayList<>();
+        urls.add(configuration.getSubscriberUrl());
+        configuration.getFailoverSubscriberUrls().stream()
+            .filter(url -> !urls.contains(url))
+            .forEach(urls::add);
+        List<PushEndpoint> result = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            PushEndpoint endpoint = previous == null ? null : previous.stream()
+                .filter(existing -> existing.getUrl().equals(url))
+                .findFirst()
+                .orElse(null);
+            result.add(endpoint != null
+                ? endpoint
+                : new PushEndpoint(configuration.getSubscriberAlias(), url, metrics,
+                    environment::getReadTimeoutMillis));
+        }
+        if (previous != null) {
+            previous.stream().filter(endpoint -> !result.contains(endpoint)).forEach(PushEndpoint::close);
+        }
+        return Collections.unmodifiableList(result);
     }
 
     /**
      * Формируем пакет данных. Выгребаем всю очередь и филтруем классы.
      */
     private ChangeStatistic collectStatistics() {
+        PushCollectStatisticsEvent event = new PushCollectStatisticsEvent();
+        event.begin();
         // Устанавливаем ревизии изменений в пакете данных
-        int revisionTo = HibernateSession.exec(() -> get(RevisionDao.class).getMaxExportableRevision());
+        // Ревизия снимка могла опередить экспортируемую, пакет не должен откатывать ее назад
+        int revisionTo = Math.max(environment.getMaxExportableRevision(), lastRevisionTo);
         currentStatistic.setRevisionFrom(lastRevisionTo);
         currentStatistic.setRevisionTo(revisionTo);
+        int drainedStatistics = drainStatistics();
+        // Признак пересинхронизации читаем после выгребания: схлопывание во время выгребания тоже попадет в пакет
+        batchResync = resync.get();
+        currentStatistic.setResyncSinceRevision(batchResync == null ? null : batchResync.sinceRevision);
+        event.end();
+        if (event.shouldCommit()) {
+            event.subscriberAlias = configuration.getSubscriberAlias();
+            event.revisionFrom = currentStatistic.getRevisionFrom();
+            event.revisionTo = currentStatistic.getRevisionTo();
+            event.classCount = currentStatistic.getClassStatistics().size();
+            event.drainedStatistics = drainedStatistics;
+            event.commit();
+        }
+        return currentStatistic;
+    }
+
+    /**
+     * Формируем первый пакет - снимок количеств объектов классов, подписанных на создание, на текущую ревизию.
+     * Статистика флашей до этой ревизии уже учтена в снимке и при следующей сборке отбрасывается.
+     */
+    private ChangeStatistic collectSnapshot() {
+        snapshotPending = false;
+        int exportableRevision = environment.getMaxExportableRevision();
+        long startNanos = System.nanoTime();
+        List<PushSubscriptionEntity> entities = configuration.getSubscriptionEntities();
+        // Количества передаются как созданные объекты, поэтому считаем только сущности, подписанные на создание
+        List<PushSubscriptionEntity> createdEntities = entities.stream()
+            .filter(entity -> entity.getOperations().isEmpty()
+                              || entity.getOperations().contains(PushOperationType.CREATED))
+            .collect(Collectors.toList());
+        Map<String, Integer> counts = entities.isEmpty() || !createdEntities.isEmpty()
+            ? environment.countEntities(createdEntities)
+            : Collections.emptyMap();
+        // Флаш попадает в базу раньше, чем его статистика доходит до notifier'a, поэтому ревизию
+        // снимка берем после подсчета: флаши, полученные к его окончанию, считаем учтенными в количествах
+        int revisionTo = Math.max(exportableRevision, lastSeenRevision);
+        currentStatistic.setRevisionFrom(lastRevisionTo);
+        currentStatistic.setRevisionTo(revisionTo);
+        currentStatistic.setSnapshot(true);
+        counts.forEach((className, count) -> currentStatistic.append(new ChangeStatisticItem(className, count, 0, 0)));
+        snapshotRevision = revisionTo;
+        LOG.info.format("Bootstrap snapshot collected for subscriber: %s, revision: %s, classes: %s, millis: %s",
+            configuration.getSubscriberAlias(), revisionTo, counts.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        return currentStatistic;
+    }
+
+    /**
+     * Выгребаем очередь в текущий пакет, оставляя только подписанные классы и изменения. Вместе с достигшими порога
+     * отправляются и все накопленные изменения.
+     *
+     * @return количество выбранных из очереди статистик
+     */
+    int drainStatistics() {
+        SubscriptionFilter filter = subscriptionFilter;
+        // Статистика, добавленная во время выгребания, заново выставит флаги
+        thresholdReached = false;
+        immediatePending = false;
+        int drainedStatistics = 0;
         ChangeStatistic statisticOnStack;
+        long collectedNanos = System.nanoTime();
         while ((statisticOnStack = statistics.poll()) != null) {
-            statisticOnStack.getClassStatistics().entrySet().stream()
-                .filter(entry -> subscriptionClasses.isEmpty() || subscriptionClasses.contains(entry.getKey()))
-                .forEach(entry -> currentStatistic.append(entry.getValue()));
+            drainedStatistics++;
+            long bytes = statisticOnStack.getEstimatedHeapBytes();
+            if (statisticOnStack.onDequeued()) {
+                memoryBudget.release(bytes);
+            }
+            metrics.onStatisticDrained(bytes, statisticOnStack.getFlushNanos(), statisticOnStack.getAggregatedNanos(),
+                collectedNanos);
+            // Изменения, уже учтенные в снимке, подписчику не нужны
+            if (statisticOnStack.getRevisionTo() <= snapshotRevision) {
+                continue;
+            }
+            boolean subscribed = false;
+            for (Map.Entry<String, ChangeStatisticItem> entry : statisticOnStack.getClassStatistics().entrySet()) {
+                // Неподписанные типы изменений и обновления, не затронувшие подписанные поля, подписчику не интересны
+                ChangeStatisticItem item = filter.filter(entry.getKey(), entry.getValue());
+                if (item == null) {
+                    continue;
+                }
+                if (filter.hasThresholds()) {
+                    AtomicInteger pendingCount = pendingCounts.get(entry.getKey());
+                    if (pendingCount != null) {
+                        pendingCount.addAndGet(-(item.getCreated() + item.getUpdated() + item.getDeleted()));
+                    }
+                }
+                if (configuration.isIncludeEntityIds()) {
+                    currentStatistic.append(item, configuration.getMaxEntityIdsPerClass());
+                } else {
+                    currentStatistic.append(item);
+                }
+                subscribed = true;
+            }
+            // Задержку доставки считаем только от флашей, изменения которых попали в пакет
+            if (subscribed) {
+                currentStatistic.trackFlush(statisticOnStack);
+            }
         }
-        return currentStatistic;
+        return drainedStatistics;
     }
 
     /**
@@ -336,75 +1090,244 @@ public class PushSubscriberNotifier {
         int timeout = currentAttemptIntervalMinutes;
         currentAttemptIntervalMinutes += previousAttemptIntervalMinutes;
         previousAttemptIntervalMinutes = timeout;
-        int maxAttemptPeriod = get(RestoProperties.class).getPushNotificationMaxAttemptPeriodMinutes();
+        int maxAttemptPeriod = environment.getMaxAttemptPeriodMinutes();
         return currentAttemptIntervalMinutes > maxAttemptPeriod
             ? maxAttemptPeriod
             : currentAttemptIntervalMinutes;
     }
 
-    /**
-     * Метод получает всех наследников классов из конфига.
-     *
-     * @param classes - список классов из конфига
-     *
-     * @return - множество всех классов, включая иерархию
-     */
-    private Set<String> getSubclasses(
-        List<PushSubscriptionEntity> classes
-    ) {
-        ClassesRegistry classesRegistry = get(ClassesRegistry.class);
-        ClassResolver classResolver = get(ClassResolver.class);
-        return classes.stream()
-            .map(PushSubscriptionEntity::getEntityClassName)
-            .map(classResolver::forName)
-            .map(classesRegistry::getSubClasses)
-            .flatMap(Collection::stream)
-            .distinct()
-            .filter(cls -> !Modifier.isAbstract(cls.getModifiers()))
-            .map(classResolver::getName)
-            .collect(Collectors.toSet());
-    }
-
     private void createEvent(Throwable t, ChangeStatistic statistic) {
-        HibernateSession.execAndUpdateRevision(() -> {
-            PushNotificationEvent event =
-                new PushNotificationEvent(configuration, statistic.getRevisionFrom(), statistic.getRevisionTo(), t);
-            HibernateSession.get().save(event);
-        });
+        PushEventWriteEvent writeEvent = new PushEventWriteEvent();
+        writeEvent.begin();
+        eventLog.write(statistic.getRevisionFrom(), statistic.getRevisionTo(), t);
+        commitEventWrite(writeEvent, statistic);
     }
 
     private void createEvent(String message, ChangeStatistic statistic) {
-        HibernateSession.execAndUpdateRevision(() -> {
-            PushNotificationEvent event =
-                new PushNotificationEvent(configuration, statistic.getRevisionFrom(), statistic.getRevisionTo(),
-                    message);
-            HibernateSession.get().save(event);
-        });
+        PushEventWriteEvent writeEvent = new PushEventWriteEvent();
+        writeEvent.begin();
+        eventLog.write(statistic.getRevisionFrom(), statistic.getRevisionTo(), message);
+        commitEventWrite(writeEvent, statistic);
+    }
+
+    private void commitEventWrite(PushEventWriteEvent writeEvent, ChangeStatistic statistic) {
+        writeEvent.end();
+        if (writeEvent.shouldCommit()) {
+            writeEvent.subscriberAlias = configuration.getSubscriberAlias();
+            writeEvent.revisionFrom = statistic.getRevisionFrom();
+            writeEvent.revisionTo = statistic.getRevisionTo();
+            writeEvent.commit();
+        }
     }
 
     public void onException(Throwable t) {
         status = NotifierStatus.STOPPED;
-        busy.set(false);
         LOG.error.format(t, "Error occurred while processing subscriber %s", configuration.getSubscriberAlias());
         createEvent(t, currentStatistic);
+        releaseBusy();
     }
 
     /**
-     * Обновляем статус, флаг и подписанные классы в случае переподписки
+     * Применяем текущую конфигурацию в случае переподписки
+     *
+     * @see #reconfigure(PushSubscriberConfiguration)
      */
     public void restart() {
-        status = NotifierStatus.RUNNING;
-        subscriptionClasses = getSubclasses(configuration.getSubscriptionEntities());
-        if (scheduledFuture != null) {
+        reconfigure(configuration);
+    }
+
+    /**
+     * Применяем новую конфигурацию подписчика. Пересобирается только то, что изменилось: фильтр - при изменении
+     * подписанных сущностей, расписание - при изменении режима или периода, ограничения частоты - при изменении
+     * лимитов. Очередь, последняя переданная ревизия, пакет, ожидающий отправки, номера доставок и соединения
+     * end-point'ов сохраняются.
+     * <p>
+     * Фильтр меняется сразу, остальное - когда notifier не занят доставкой: сразу, если он свободен, иначе перед
+     * следующей попыткой или при освобождении. Остановленный notifier возобновляет работу с сохраненной очередью.
+     */
+    public void reconfigure(@NotNull PushSubscriberConfiguration configuration) {
+        synchronized (pendingConfiguration) {
+            String newSubscriptionKey = getSubscriptionKey(configuration.getSubscriptionEntities());
+            if (!newSubscriptionKey.equals(subscriptionKey)) {
+                subscriptionFilter = SubscriptionFilter.compile(configuration.getSubscriptionEntities(), environment);
+                subscriptionKey = newSubscriptionKey;
+                // Накопленное по старым правилам отправляем при следующей попытке
+                pendingCounts.clear();
+                thresholdReached = !statistics.isEmpty();
+                immediatePending = false;
+            }
+            pendingConfiguration.set(configuration);
+        }
+        if (busy.compareAndSet(false, true)) {
+            releaseBusy();
+        }
+    }
+
+    /**
+     * Применяем ожидающую конфигурацию. Вызывается только владельцем флага {@link #busy}.
+     *
+     * @return notifier возобновлен и его нужно разбудить после освобождения флага
+     */
+    private boolean applyPendingConfiguration() {
+        PushSubscriberConfiguration configuration = pendingConfiguration.getAndSet(null);
+        if (configuration == null) {
+            return false;
+        }
+        this.configuration = configuration;
+        // Доставка не идет, поэтому удаленные end-point'ы можно закрыть
+        endpoints = buildEndpoints(endpoints);
+        localListenerName = getLocalListenerName(configuration.getSubscriberUrl());
+        initRateLimits();
+        boolean scheduled = scheduledFuture != null && !scheduledFuture.isDone();
+        if (scheduled && (!isPeriodical() || configuration.getNotificationPeriodSec() != scheduledPeriodSec)) {
             scheduledFuture.cancel(true);
             scheduledFuture = null;
+            scheduled = false;
+        }
+        boolean resumed = !isRunning();
+        if (resumed) {
+            resume();
         }
+        if (!scheduled && isPeriodical()) {
+            onSchedule();
+        }
+        return resumed && isImmediately();
+    }
+
+    /**
+     * Освобождаем notifier. Конфигурация, пришедшая пока он был занят, применяется перед освобождением.
+     */
+    private void releaseBusy() {
+        do {
+            boolean wake = applyPendingConfiguration();
+            busy.set(false);
+            if (wake) {
+                onRunAsyncProcessNotify();
+            }
+            // Конфигурация могла прийти после применения, но до освобождения флага
+        } while (pendingConfiguration.get() != null && busy.compareAndSet(false, true));
+    }
+
+    /**
+     * Пересобираем фильтр по текущей иерархии классов после изменения метаданных классов
+     */
+    void refreshSubscriptionFilter() {
+        subscriptionFilter = SubscriptionFilter.compile(configuration.getSubscriptionEntities(), environment);
+    }
+
+    /**
+     * Возобновляем работу остановленного notifier'a. Пока он был остановлен, статистика продолжала копиться в очереди,
+     * поэтому пересинхронизация нужна, только если очередь схлопывалась по бюджету памяти - признак уже выставлен.
+     */
+    private void resume() {
         currentAttempt = 0;
         previousAttemptIntervalMinutes = 0;
         currentAttemptIntervalMinutes = 1;
-        if (isPeriodical()) {
-            onSchedule();
+        thresholdReached = !statistics.isEmpty() || resync.get() != null;
+        status = NotifierStatus.RUNNING;
+        LOG.info.format("Notifier resumed for subscriber: %s, last revision: %s, resync: %s",
+            configuration.getSubscriberAlias(), lastRevisionTo, resync.get() != null);
+        if (isImmediately()) {
+            immediatePending = true;
+        }
+    }
+
+    /**
+     * Ключ подписанных сущностей со всеми параметрами, влияющими на фильтр
+     */
+    @NotNull
+    private static String getSubscriptionKey(@NotNull List<PushSubscriptionEntity> entities) {
+        StringBuilder key = new StringBuilder();
+        for (PushSubscriptionEntity entity : entities) {
+            key.append(entity.getEntityClassName())
+                .append(':').append(entity.getOperations())
+                .append(':').append(entity.getMinChangedCount())
+                .append(':').append(entity.isImmediate())
+                .append(':');
+            entity.getFields().forEach(field -> key.append(field.getFieldName()).append(','));
+            key.append(';');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Выставляем признак пересинхронизации с заданной ревизии, объединяя с уже выставленным
+     *
+     * @return предыдущий признак
+     */
+    @Nullable
+    private ResyncMarker markResync(int sinceRevision) {
+        return resync.getAndUpdate(current -> new ResyncMarker(
+            current == null ? sinceRevision : Math.min(current.sinceRevision, sinceRevision)));
+    }
+
+    /**
+     * Схлопываем очередь в признак пересинхронизации: подписчик получит пакет с ревизией, после которой нужно
+     * перечитать все данные. Вызывается менеджером при превышении бюджета памяти.
+     */
+    void collapseToResync() {
+        int sinceRevision = lastRevisionTo;
+        ResyncMarker previous = markResync(sinceRevision);
+        long bytes = discardPending();
+        metrics.onResync();
+        thresholdReached = true;
+        if (isImmediately()) {
+            immediatePending = true;
+        }
+        if (previous == null) {
+            LOG.warn.format("Push memory budget exceeded, pending changes (%s bytes) collapsed to resync since " +
+                            "revision %s for subscriber: %s",
+                bytes, sinceRevision, configuration.getSubscriberAlias());
+        }
+    }
+
+    /**
+     * Учитываем в бюджете память собранного пакета
+     */
+    private void reserveBatchBytes(long bytes) {
+        memoryBudget.reserve(bytes);
+        batchBytes.addAndGet(bytes);
+        if (unsubscribed) {
+            // Отписка прошла во время сборки, пакет уже никто не доставит
+            releaseBatchBytes();
+        }
+    }
+
+    private void releaseBatchBytes() {
+        memoryBudget.release(batchBytes.getAndSet(0));
+    }
+
+    /**
+     * Отбрасываем очередь и освобождаем занятую ей память
+     *
+     * @return оценка освобожденной памяти
+     */
+    long discardPending() {
+        int count = 0;
+        long bytes = 0;
+        long releasedBytes = 0;
+        ChangeStatistic statistic;
+        while ((statistic = statistics.poll()) != null) {
+            count++;
+            long statisticBytes = statistic.getEstimatedHeapBytes();
+            bytes += statisticBytes;
+            if (statistic.onDequeued()) {
+                releasedBytes += statisticBytes;
+            }
+        }
+        pendingCounts.clear();
+        if (count > 0) {
+            memoryBudget.release(releasedBytes);
+            metrics.onStatisticsDiscarded(count, bytes);
         }
+        return bytes;
+    }
+
+    /**
+     * Оценка памяти, занятой очередью
+     */
+    long getPendingBytes() {
+        return metrics.getPendingBytes();
     }
 
     /**
@@ -420,37 +1343,26 @@ public class PushSubscriberNotifier {
         status = configuration.isForcedDisabled()
             ? NotifierStatus.FORCED_DISABLED
             : NotifierStatus.STOPPED;
+        unsubscribed = true;
+        endpoints.forEach(PushEndpoint::close);
+        discardPending();
+        releaseBatchBytes();
         LOG.info.format("Subscription stopped for subscriber: %s, id: %s",
             configuration.getSubscriberAlias(), configuration.getId());
     }
 
-    /**
-     * Проверяем срок действия подписки.
-     * Если истекла, завершаем работу.
-     */
-    private boolean checkSubscriptionExpired() {
-        if (LocalDateTime.now().isAfter(configuration.getExpireDateTime())) {
-            status = NotifierStatus.STOPPED;
-            busy.set(false);
-            get(EntityManager.class).runTransacted(() -> {
-                configuration.updating();
-                configuration.setSubscriptionStatus(SubscriptionStatus.SUBSCRIPTION_EXPIRED);
-                configuration.update();
-            });
-            return true;
-        }
-        return false;
-    }
-
     /**
      * Инициализируем переменные для отправки сообщения
      */
     private void init() {
-        currentStatistic = new ChangeStatistic(configuration.getId(), get(RestoEnvironment.class).getInstanceId());
+        releaseBatchBytes();
+        currentStatistic = new ChangeStatistic(configuration.getId(), instanceId);
+        preparedBatch = null;
+        batchResync = null;
         currentAttempt = 0;
         previousAttemptIntervalMinutes = 0;
         currentAttemptIntervalMinutes = 1;
-        busy.set(false);
+        releaseBusy();
     }
 
     public boolean isImmediately() {
@@ -465,9 +1377,22 @@ public class PushSubscriberNotifier {
         return status == NotifierStatus.RUNNING;
     }
 
+    /**
+     * Notifier копит статистику: работает или остановлен, но еще не отписан и может быть возобновлен
+     */
+    public boolean isAcceptingStatistics() {
+        return !unsubscribed && status != NotifierStatus.FORCED_DISABLED;
+    }
+
+    /**
+     * Последняя заданная конфигурация, в том числе еще не примененная
+     *
+     * @see #reconfigure(PushSubscriberConfiguration)
+     */
     @NotNull
     public PushSubscriberConfiguration getConfiguration() {
-        return configuration;
+        PushSubscriberConfiguration pending = pendingConfiguration.get();
+        return pending != null ? pending : configuration;
     }
 
     public boolean isBusy() {
@@ -483,10 +1408,32 @@ public class PushSubscriberNotifier {
         this.status = status;
     }
 
+    /**
+     * Снимок количеств объектов еще не собран
+     */
+    public boolean isSnapshotPending() {
+        return snapshotPending;
+    }
+
     public int getLastRevisionTo() {
         return lastRevisionTo;
     }
 
+    public long getDeliverySequence() {
+        return deliverySequence.get();
+    }
+
+    @NotNull
+    public PushNotifierMetrics getMetrics() {
+        return metrics;
+    }
+
+    @NotNull
+    public PushNotifierMetricsSnapshot getMetricsSnapshot() {
+        return new PushNotifierMetricsSnapshot(configuration.getSubscriberAlias(), status.name(), metrics,
+            currentStatistic.getClassStatistics().size(), lastRevisionTo);
+    }
+
     public int getCurrentAttempt() {
         return currentAttempt;
     }
@@ -495,21 +1442,30 @@ public class PushSubscriberNotifier {
         return currentAttemptIntervalMinutes;
     }
 
-    @XmlAccessorType(XmlAccessType.NONE)
-    @JsonAutoDetect(
-        fieldVisibility = JsonAutoDetect.Visibility.ANY,
-        getterVisibility = JsonAutoDetect.Visibility.NONE,
-        setterVisibility = JsonAutoDetect.Visibility.NONE
-    )
-    private static class PushNotificationResponseDto {
+    /**
+     * Результат попытки уведомления
+     */
+    private enum PushResult {
+        // Пакет доставлен (или доставлять нечего)
+        DELIVERED,
+
+        // Доставка не удалась, нужна повторная попытка
+        FAILED,
+
+        // Доставка отложена ограничением частоты
+        DEFERRED,
+    }
 
-        @XmlElement
-        private String result;
+    /**
+     * Признак пересинхронизации. Каждое схлопывание создает новый объект, чтобы доставленный пакет не снял признак,
+     * выставленный после его сборки.
+     */
+    private static class ResyncMarker {
 
-        @XmlElement
-        private String message;
+        private final int sinceRevision;
 
-        public PushNotificationResponseDto() {
+        private ResyncMarker(int sinceRevision) {
+            this.sinceRevision = sinceRevision;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,256 @@
+package resto.push;
+
+import org.hibernate.Session;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.RestoEnvironment;
+import resto.RestoProperties;
+import resto.db.EntityManager;
+import resto.db.Guid;
+import resto.db.PersistedEntity;
+import resto.db.hibernate.HibernateSession;
+import resto.db.metadata.ClassResolver;
+import resto.db.metadata.ClassesRegistry;
+import resto.db.revisions.RevisionDao;
+import resto.push.configuration.PushSubscriptionEntity;
+
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static resto.core.RestoServiceLocator.get;
+
+/**
+ * Сервисы сервера для уведомителей
+ */
+public class ServerPushEnvironment implements PushEnvironment {
+
+    public static final ServerPushEnvironment INSTANCE = new ServerPushEnvironment();
+
+    /**
+     * Иерархия классов, общая для всех уведомителей. Сброс заменяет объект целиком, поэтому вычисление, начатое до
+     * сброса, не попадет в новую иерархию.
+     */
+    @NotNull
+    private volatile ClassHierarchy classHierarchy = new ClassHierarchy();
+
+    private ServerPushEnvironment() {
+    }
+
+    @NotNull
+    @Override
+    public Guid getInstanceId() {
+        return get(RestoEnvironment.class).getInstanceId();
+    }
+
+    @Override
+    public int getMaxExportableRevision() {
+        return HibernateSession.exec(() -> get(RevisionDao.class).getMaxExportableRevision());
+    }
+
+    /**
+     * Метод получает всех наследников классов из конфига.
+     *
+     * @param subscriptionEntities - список классов из конфига
+     *
+     * @return - множество всех классов, включая иерархию
+     */
+    @NotNull
+    @Override
+    public Set<String> getSubscriptionClasses(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+        if (subscriptionEntities.size() == 1) {
+            return getConcreteSubClasses(subscriptionEntities.get(0).getEntityClassName());
+        }
+        Set<String> result = new HashSet<>();
+        subscriptionEntities.forEach(entity -> result.addAll(getConcreteSubClasses(entity.getEntityClassName())));
+        return result;
+    }
+
+    /**
+     * Неабстрактные наследники класса, включая его самого. Иерархия общая для всех уведомителей и вычисляется один
+     * раз на класс до {@link #invalidateClassHierarchy()}.
+     */
+    @NotNull
+    private Set<String> getConcreteSubClasses(@NotNull String entityClassName) {
+        return classHierarchy.getConcreteSubClasses(entityClassName);
+    }
+
+    /**
+     * Неабстрактные классы всех сущностей
+     */
+    @NotNull
+    private Set<String> getAllConcreteClasses() {
+        return classHierarchy.getAllConcreteClasses();
+    }
+
+    @NotNull
+    private static Set<String> getConcreteClassNames(@NotNull Collection<? extends Class<?>> classes) {
+        ClassResolver classResolver = get(ClassResolver.class);
+        return Collections.unmodifiableSet(classes.stream()
+            .filter(cls -> !Modifier.isAbstract(cls.getModifiers()))
+            .map(classResolver::getName)
+            .collect(Collectors.toSet()));
+    }
+
+    @Override
+    public void invalidateClassHierarchy() {
+        classHierarchy = new ClassHierarchy();
+    }
+
+    /**
+     * Объекты не загружаются: каждый класс считается запросом count в одной сессии, классы по очереди в потоке
+     * уведомителя
+     */
+    @NotNull
+    @Override
+    public Map<String, Integer> countEntities(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
+        ClassResolver classResolver = get(ClassResolver.class);
+        Set<String> classNames = subscriptionEntities.isEmpty()
+            ? getAllConcreteClasses()
+            : getSubscriptionClasses(subscriptionEntities);
+        return HibernateSession.exec(() -> {
+            Session session = HibernateSession.get();
+            Map<String, Integer> counts = new HashMap<>();
+            for (String className : classNames) {
+                String entityName = classResolver.forName(className).getName();
+                // Наследники считаются отдельно своими классами
+                Number count = (Number) session.createQuery(
+                        "select count(*) from " + entityName + " e where e.class = " + entityName +
+                        " and e.deleted = false")
+                    .uniqueResult();
+                counts.put(className, count.intValue());
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public int getMaxTryAttempts() {
+        return get(RestoProperties.class).getPushNotificationMaxTryAttempts();
+    }
+
+    @Override
+    public int getMaxAttemptPeriodMinutes() {
+        return get(RestoProperties.class).getPushNotificationMaxAttemptPeriodMinutes();
+    }
+
+    @Override
+    public int getReadTimeoutMillis() {
+        return get(RestoProperties.class).getPushNotificationReadTimeoutMillis();
+    }
+
+    @Override
+    public void saveEvent(@NotNull PushNotificationEvent event) {
+        HibernateSession.execAndUpdateRevision(() -> HibernateSession.get().save(event));
+    }
+
+    @Override
+    public void updateEvent(@NotNull PushNotificationEvent event) {
+        HibernateSession.execAndUpdateRevision(() -> HibernateSession.get().update(event));
+    }
+
+    @Override
+    public void saveStacktrace(@NotNull PushNotificationStacktrace stacktrace) {
+        try {
+            HibernateSession.execAndUpdateRevision(() -> {
+                if (!touchStacktrace(stacktrace)) {
+                    HibernateSession.get().save(stacktrace);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Тот же stacktrace мог одновременно сохранить другой подписчик: уникальный хэш отклонил вставку
+            if (!HibernateSession.exec(() -> touchStacktrace(stacktrace))) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Продлеваем дату сохраненного stacktrace'а
+     *
+     * @return stacktrace с таким хэшем уже сохранен
+     */
+    private static boolean touchStacktrace(@NotNull PushNotificationStacktrace stacktrace) {
+        return HibernateSession.get()
+                   .createQuery("update PushNotificationStacktrace s set s.date = :date where s.hash = :hash")
+                   .setParameter("date", stacktrace.getDate())
+                   .setParameter("hash", stacktrace.getHash())
+                   .executeUpdate() > 0;
+    }
+
+    @Override
+    public int purgeEvents(@NotNull Date before, int maxCount) {
+        return HibernateSession.exec(() -> {
+            Session session = HibernateSession.get();
+            // Идем по кластерному индексу date от самых старых, чтобы удаление не блокировало новые записи
+            List<?> ids = session.createQuery(
+                    "select e.id from PushNotificationEvent e where e.date < :before order by e.date")
+                .setParameter("before", before)
+                .setMaxResults(maxCount)
+                .list();
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            return session.createQuery("delete from PushNotificationEvent e where e.id in (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        });
+    }
+
+    @Override
+    public int purgeStacktraces(@NotNull Date before) {
+        return HibernateSession.exec(() -> HibernateSession.get().createQuery(
+                "delete from PushNotificationStacktrace s where s.date < :before and not exists " +
+                "(from PushNotificationEvent e where e.stacktraceHash = s.hash)")
+            .setParameter("before", before)
+            .executeUpdate());
+    }
+
+    @Override
+    public void runTransacted(@NotNull Runnable action) {
+        get(EntityManager.class).runTransacted(action);
+    }
+
+    /**
+     * Иерархия классов на момент вычисления
+     */
+    private static class ClassHierarchy {
+
+        /**
+         * Неабстрактные наследники подписанных классов по именам классов
+         */
+        private final Map<String, Set<String>> concreteSubClasses = new ConcurrentHashMap<>();
+
+        /**
+         * Неабстрактные классы всех сущностей, null - еще не вычислены
+         */
+        @Nullable
+        private Set<String> allConcreteClasses;
+
+        @NotNull
+        private Set<String> getConcreteSubClasses(@NotNull String entityClassName) {
+            return concreteSubClasses.computeIfAbsent(entityClassName, className -> {
+                ClassResolver classResolver = get(ClassResolver.class);
+                return getConcreteClassNames(
+                    get(ClassesRegistry.class).getSubClasses(classResolver.forName(className)));
+            });
+        }
+
+        @NotNull
+        private synchronized Set<String> getAllConcreteClasses() {
+            if (allConcreteClasses == null) {
+                allConcreteClasses = getConcreteClassNames(
+                    get(ClassesRegistry.class).getSubClasses(PersistedEntity.class));
+            }
+            return allConcreteClasses;
+        }
+    }
+}
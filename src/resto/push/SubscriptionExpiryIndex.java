@@ -0,0 +1,109 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.db.Guid;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Сроки действия подписок, упорядоченные по времени истечения. Позволяет менеджеру планировать одну задачу на
+ * ближайшее истечение вместо проверки срока при каждой попытке уведомления.
+ */
+final class SubscriptionExpiryIndex {
+
+    private static final Comparator<Entry> ORDER = Comparator
+        .comparing((Entry entry) -> entry.expireDateTime)
+        .thenComparingLong(entry -> entry.sequence);
+
+    private final NavigableSet<Entry> entries = new TreeSet<>(ORDER);
+
+    private final Map<Guid, Entry> entriesById = new HashMap<>();
+
+    /**
+     * Порядок добавления, различает подписки с одинаковым сроком
+     */
+    private long sequence;
+
+    /**
+     * Добавляем подписку или обновляем ее срок действия
+     */
+    synchronized void put(@NotNull Guid configurationId, @NotNull LocalDateTime expireDateTime) {
+        Entry previous = entriesById.get(configurationId);
+        if (previous != null) {
+            if (previous.expireDateTime.equals(expireDateTime)) {
+                return;
+            }
+            entries.remove(previous);
+        }
+        Entry entry = new Entry(configurationId, expireDateTime, sequence++);
+        entries.add(entry);
+        entriesById.put(configurationId, entry);
+    }
+
+    synchronized void remove(@NotNull Guid configurationId) {
+        Entry entry = entriesById.remove(configurationId);
+        if (entry != null) {
+            entries.remove(entry);
+        }
+    }
+
+    /**
+     * Удаляем подписку, если ее срок в индексе истек к заданному моменту. Срок, продленный после выборки истекших,
+     * остается в индексе.
+     */
+    synchronized void removeIfExpired(@NotNull Guid configurationId, @NotNull LocalDateTime now) {
+        Entry entry = entriesById.get(configurationId);
+        if (entry != null && now.isAfter(entry.expireDateTime)) {
+            entriesById.remove(configurationId);
+            entries.remove(entry);
+        }
+    }
+
+    /**
+     * Подписки, срок действия которых истек к заданному моменту. Из индекса не удаляются.
+     */
+    @NotNull
+    synchronized List<Guid> getExpired(@NotNull LocalDateTime now) {
+        List<Guid> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!now.isAfter(entry.expireDateTime)) {
+                break;
+            }
+            result.add(entry.configurationId);
+        }
+        return result;
+    }
+
+    /**
+     * Ближайший срок истечения (null - подписок нет)
+     */
+    @Nullable
+    synchronized LocalDateTime getNextExpireDateTime() {
+        return entries.isEmpty() ? null : entries.first().expireDateTime;
+    }
+
+    private static class Entry {
+
+        @NotNull
+        private final Guid configurationId;
+
+        @NotNull
+        private final LocalDateTime expireDateTime;
+
+        private final long sequence;
+
+        private Entry(@NotNull Guid configurationId, @NotNull LocalDateTime expireDateTime, long sequence) {
+            this.configurationId = configurationId;
+            this.expireDateTime = expireDateTime;
+            this.sequence = sequence;
+        }
+    }
+}
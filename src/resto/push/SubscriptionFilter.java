@@ -0,0 +1,190 @@
+package resto.push;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.configuration.PushOperationType;
+import resto.push.configuration.PushSubscriptionEntity;
+import resto.push.configuration.PushSubscriptionField;
+import resto.push.statistic.ChangeFieldIndex;
+import resto.push.statistic.ChangeStatisticItem;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Подписка уведомителя, скомпилированная в правила по классам с учетом иерархии: типы изменений, маска полей,
+ * порог количества изменений и срочность. Компилируется при создании и перезапуске уведомителя, проверяется при
+ * раздаче статистики флаша и при сборке пакета.
+ */
+final class SubscriptionFilter {
+
+    /**
+     * Подписка на все классы без ограничений
+     */
+    private static final SubscriptionFilter ALL = new SubscriptionFilter(Collections.emptyMap(), false);
+
+    /**
+     * Правила по классам. Пустая карта - подписаны на все.
+     */
+    @NotNull
+    private final Map<String, ClassRule> rules;
+
+    private final boolean thresholds;
+
+    private SubscriptionFilter(@NotNull Map<String, ClassRule> rules, boolean thresholds) {
+        this.rules = rules;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Если один класс попадает под несколько подписанных сущностей, их типы изменений и поля объединяются, порог
+     * берется наименьший, а класс срочный, если срочна хотя бы одна из сущностей.
+     */
+    @NotNull
+    static SubscriptionFilter compile(
+        @NotNull List<PushSubscriptionEntity> entities,
+        @NotNull PushEnvironment environment
+    ) {
+        if (entities.isEmpty()) {
+            return ALL;
+        }
+        Map<String, ClassRule> rules = new HashMap<>();
+        for (PushSubscriptionEntity entity : entities) {
+            environment.getSubscriptionClasses(Collections.singletonList(entity))
+                .forEach(className -> rules.merge(className, new ClassRule(entity, className), ClassRule::merge));
+        }
+        boolean thresholds = rules.values().stream().anyMatch(rule -> rule.minChangedCount > 1);
+        return new SubscriptionFilter(rules, thresholds);
+    }
+
+    boolean isPassAll() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Есть классы, изменения которых накапливаются до порога
+     */
+    boolean hasThresholds() {
+        return thresholds;
+    }
+
+    /**
+     * Об изменениях класса уведомляем сразу, не дожидаясь периодической отправки
+     */
+    boolean isImmediate(@NotNull String className) {
+        ClassRule rule = rules.get(className);
+        return rule != null && rule.immediate;
+    }
+
+    /**
+     * Количество интересных подписчику изменений класса (0 - класс или изменения не подписаны)
+     */
+    int getChangedCount(@NotNull String className, @NotNull ChangeStatisticItem item) {
+        if (rules.isEmpty()) {
+            return item.getCreated() + item.getUpdated() + item.getDeleted();
+        }
+        ClassRule rule = rules.get(className);
+        return rule == null
+            ? 0
+            : item.getChangedCount(rule.created, rule.updated, rule.deleted, rule.fieldMask);
+    }
+
+    /**
+     * Порог количества изменений класса, с которого подписчик уведомляется
+     */
+    int getMinChangedCount(@NotNull String className) {
+        ClassRule rule = rules.get(className);
+        return rule == null ? 1 : rule.minChangedCount;
+    }
+
+    /**
+     * Статистика класса для подписчика
+     *
+     * @return статистика только подписанных изменений или null, если класс или изменения не подписаны
+     */
+    @Nullable
+    ChangeStatisticItem filter(@NotNull String className, @NotNull ChangeStatisticItem item) {
+        if (rules.isEmpty()) {
+            return item;
+        }
+        ClassRule rule = rules.get(className);
+        return rule == null ? null : item.filter(rule.created, rule.updated, rule.deleted, rule.fieldMask);
+    }
+
+    /**
+     * Правило подписки одного класса
+     */
+    private static class ClassRule {
+
+        private final boolean created;
+
+        private final boolean updated;
+
+        private final boolean deleted;
+
+        private final long fieldMask;
+
+        private final int minChangedCount;
+
+        private final boolean immediate;
+
+        private ClassRule(
+            boolean created,
+            boolean updated,
+            boolean deleted,
+            long fieldMask,
+            int minChangedCount,
+            boolean immediate
+        ) {
+            this.created = created;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.fieldMask = fieldMask;
+            this.minChangedCount = minChangedCount;
+            this.immediate = immediate;
+        }
+
+        private ClassRule(@NotNull PushSubscriptionEntity entity, @NotNull String className) {
+            List<PushOperationType> operations = entity.getOperations();
+            this.created = operations.isEmpty() || operations.contains(PushOperationType.CREATED);
+            this.updated = operations.isEmpty() || operations.contains(PushOperationType.UPDATED);
+            this.deleted = operations.isEmpty() || operations.contains(PushOperationType.DELETED);
+            // Подписка на сущность без полей - подписка на все поля
+            this.fieldMask = entity.getFields().isEmpty()
+                ? ChangeFieldIndex.ALL_FIELDS
+                : ChangeFieldIndex.getSubscriptionMask(className, entity.getFields().stream()
+                    .map(PushSubscriptionField::getFieldName)
+                    .collect(Collectors.toList()));
+            this.minChangedCount = Math.max(entity.getMinChangedCount(), 1);
+            this.immediate = entity.isImmediate();
+        }
+
+        @NotNull
+        private ClassRule merge(@NotNull ClassRule other) {
+            return new ClassRule(
+                created || other.created,
+                updated || other.updated,
+                deleted || other.deleted,
+                mergeFieldMask(other),
+                Math.min(minChangedCount, other.minChangedCount),
+                immediate || other.immediate);
+        }
+
+        /**
+         * Поля учитываются только у правил, подписанных на изменения: маска правила без UPDATED (по умолчанию все
+         * поля) не должна расширять отбор обновлений другого правила
+         */
+        private long mergeFieldMask(@NotNull ClassRule other) {
+            if (!other.updated) {
+                return fieldMask;
+            }
+            if (!updated) {
+                return other.fieldMask;
+            }
+            return fieldMask | other.fieldMask;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package resto.push.configuration;
+
+import resto.db.DataClass;
+import resto.localization.enums.LocalizableName;
+
+/**
+ * Тип изменения сущности
+ *
+ * @see PushSubscriptionEntity#operations
+ */
+@DataClass
+public enum PushOperationType implements LocalizableName {
+    // Сущность создана "Создание"
+    CREATED,
+
+    // Сущность изменена "Изменение"
+    UPDATED,
+
+    // Сущность удалена "Удаление"
+    DELETED,
+
+    //
+    ;
+}
\ No newline at end of file
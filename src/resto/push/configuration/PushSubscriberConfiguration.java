@@ -22,6 +22,9 @@ import java.util.List;
 @DataClass
 @RootCachedEntity(loader = PersistedEntityLoader.class)
 public class PushSubscriberConfiguration extends PersistedEntity {
+
+    private static final int DEFAULT_MAX_ENTITY_IDS_PER_CLASS = 1000;
+
     /**
      * Идентификатор подписчика
      */
@@ -34,6 +37,18 @@ public class PushSubscriberConfiguration extends PersistedEntity {
     @NotNull
     private String subscriberUrl;
 
+    /**
+     * Резервные end-point'ы подписчика в порядке приоритета.
+     * Используются, если основной end-point не ответил.
+     */
+    @NotNull
+    private List<String> failoverSubscriberUrls = new ArrayList<>();
+
+    /**
+     * Дублировать запрос на следующий end-point, если текущий не ответил за p95 своих задержек
+     */
+    private boolean hedgedDelivery = false;
+
     /**
      * Интервал уведомлений о событии (в секундах)
      */
@@ -44,6 +59,46 @@ public class PushSubscriberConfiguration extends PersistedEntity {
      */
     private int connectTimeoutMillis;
 
+    /**
+     * Подстраивать таймауты под наблюдаемые задержки подписчика.
+     * Настроенные таймауты в этом режиме являются верхними границами.
+     *
+     * @see resto.push.delivery.AdaptiveTimeout
+     */
+    private boolean adaptiveTimeout = false;
+
+    /**
+     * Ограничение количества уведомлений в секунду (0 - без ограничения)
+     */
+    private double maxPushesPerSecond;
+
+    /**
+     * Ограничение объема уведомлений в байтах в секунду (0 - без ограничения)
+     */
+    private long maxBytesPerSecond;
+
+    /**
+     * Ограничение размера одного уведомления в байтах (0 - без ограничения).
+     * Статистика большего размера отправляется упорядоченными частями одного пакета.
+     */
+    private int maxPayloadBytes;
+
+    /**
+     * Передавать id созданных, обновленных и удаленных объектов по классам
+     */
+    private boolean includeEntityIds = false;
+
+    /**
+     * Ограничение количества id одного класса в пакете. Сверх него по классу передаются только количества.
+     */
+    private int maxEntityIdsPerClass = DEFAULT_MAX_ENTITY_IDS_PER_CLASS;
+
+    /**
+     * Первым уведомлением передавать снимок: количества объектов подписанных классов на текущую ревизию.
+     * Уведомитель всегда начинает с ревизии 0, поэтому снимок отправляется при подписке и после запуска сервера.
+     */
+    private boolean bootstrapSnapshot = false;
+
     /**
      * Формат body запроса-уведомления (по умолчанию json)
      */
@@ -55,6 +110,13 @@ public class PushSubscriberConfiguration extends PersistedEntity {
      */
     private boolean forcedDisabled = false;
 
+    /**
+     * Вес подписчика при распределении потоков доставки уведомлений
+     *
+     * @see resto.push.delivery.PushDeliveryScheduler
+     */
+    private int deliveryWeight = 1;
+
     /**
      * Подписка на классы.
      * Если список пустой - подписаны на все.
@@ -135,6 +197,26 @@ public class PushSubscriberConfiguration extends PersistedEntity {
         return subscriberUrl;
     }
 
+    @NotNull
+    public List<String> getFailoverSubscriberUrls() {
+        // Для конфигураций, сохраненных до появления резервных end-point'ов
+        return failoverSubscriberUrls == null
+            ? Collections.emptyList()
+            : Collections.unmodifiableList(failoverSubscriberUrls);
+    }
+
+    public void setFailoverSubscriberUrls(@NotNull List<String> failoverSubscriberUrls) {
+        this.failoverSubscriberUrls = new ArrayList<>(failoverSubscriberUrls);
+    }
+
+    public boolean isHedgedDelivery() {
+        return hedgedDelivery;
+    }
+
+    public void setHedgedDelivery(boolean hedgedDelivery) {
+        this.hedgedDelivery = hedgedDelivery;
+    }
+
     @NotNull
     public String getMediaType() {
         return mediaType;
@@ -152,6 +234,15 @@ public class PushSubscriberConfiguration extends PersistedEntity {
         this.forcedDisabled = forcedDisabled;
     }
 
+    public int getDeliveryWeight() {
+        // Для конфигураций, сохраненных до появления веса
+        return Math.max(deliveryWeight, 1);
+    }
+
+    public void setDeliveryWeight(int deliveryWeight) {
+        this.deliveryWeight = deliveryWeight;
+    }
+
     public void setNotificationPeriodSec(int notificationPeriodSec) {
         this.notificationPeriodSec = notificationPeriodSec;
     }
@@ -168,6 +259,62 @@ public class PushSubscriberConfiguration extends PersistedEntity {
         return connectTimeoutMillis;
     }
 
+    public double getMaxPushesPerSecond() {
+        return maxPushesPerSecond;
+    }
+
+    public void setMaxPushesPerSecond(double maxPushesPerSecond) {
+        this.maxPushesPerSecond = maxPushesPerSecond;
+    }
+
+    public long getMaxBytesPerSecond() {
+        return maxBytesPerSecond;
+    }
+
+    public void setMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+    }
+
+    public int getMaxPayloadBytes() {
+        return maxPayloadBytes;
+    }
+
+    public void setMaxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    public boolean isIncludeEntityIds() {
+        return includeEntityIds;
+    }
+
+    public void setIncludeEntityIds(boolean includeEntityIds) {
+        this.includeEntityIds = includeEntityIds;
+    }
+
+    public int getMaxEntityIdsPerClass() {
+        return maxEntityIdsPerClass > 0 ? maxEntityIdsPerClass : DEFAULT_MAX_ENTITY_IDS_PER_CLASS;
+    }
+
+    public void setMaxEntityIdsPerClass(int maxEntityIdsPerClass) {
+        this.maxEntityIdsPerClass = maxEntityIdsPerClass;
+    }
+
+    public boolean isBootstrapSnapshot() {
+        return bootstrapSnapshot;
+    }
+
+    public void setBootstrapSnapshot(boolean bootstrapSnapshot) {
+        this.bootstrapSnapshot = bootstrapSnapshot;
+    }
+
+    public boolean isAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    public void setAdaptiveTimeout(boolean adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
     public void setSubscriptionEntities(@NotNull List<PushSubscriptionEntity> subscriptionEntities) {
         this.subscriptionEntities.clear();
         this.subscriptionEntities.addAll(subscriptionEntities);
@@ -1,6 +1,7 @@
 package resto.push.configuration;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import resto.db.ConstructorWithoutArgs;
 import resto.db.DataClass;
 
@@ -25,6 +26,24 @@ public class PushSubscriptionEntity {
     @NotNull
     private List<PushSubscriptionField> fields;
 
+    /**
+     * Интересующие подписчика типы изменений. Если список пустой - все.
+     */
+    @Nullable
+    private List<PushOperationType> operations;
+
+    /**
+     * Минимальное количество изменений сущности (с учетом типов и полей), при котором подписчик уведомляется.
+     * Меньшие изменения накапливаются до достижения порога. 0 и 1 - уведомлять о любом изменении.
+     */
+    private int minChangedCount;
+
+    /**
+     * Уведомлять об изменениях сущности сразу, не дожидаясь очередной периодической отправки.
+     * Учитывается только в периодической подписке ({@link SubscriptionStatus#PERIODICALLY_LISTENING}).
+     */
+    private boolean immediate;
+
     @SuppressWarnings("ConstantConditions")
     @ConstructorWithoutArgs
     public PushSubscriptionEntity() {
@@ -48,4 +67,29 @@ public class PushSubscriptionEntity {
     public List<PushSubscriptionField> getFields() {
         return Collections.unmodifiableList(fields);
     }
+
+    @NotNull
+    public List<PushOperationType> getOperations() {
+        return operations == null ? Collections.emptyList() : Collections.unmodifiableList(operations);
+    }
+
+    public void setOperations(@NotNull List<PushOperationType> operations) {
+        this.operations = new ArrayList<>(operations);
+    }
+
+    public int getMinChangedCount() {
+        return minChangedCount;
+    }
+
+    public void setMinChangedCount(int minChangedCount) {
+        this.minChangedCount = minChangedCount;
+    }
+
+    public boolean isImmediate() {
+        return immediate;
+    }
+
+    public void setImmediate(boolean immediate) {
+        this.immediate = immediate;
+    }
 }
\ No newline at end of file
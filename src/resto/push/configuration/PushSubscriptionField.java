@@ -10,9 +10,10 @@ import resto.db.DataClass;
 @DataClass
 public class PushSubscriptionField {
     /**
-     * Наименование поля сущности.
-     * todo данное поле пока игнорируется и в логике не участвует.
-     * todo когда определимся как вытягивать бизнес данные и какие метаданные от подписчика нужны, полностью переделаем
+     * Наименование поля сущности. Обновления сущности, не затронувшие ни одно из подписанных полей,
+     * подписчику не отправляются.
+     *
+     * @see resto.push.statistic.ChangeFieldIndex
      */
     @NotNull
     private String fieldName;
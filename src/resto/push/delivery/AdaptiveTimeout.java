@@ -0,0 +1,140 @@
+package resto.push.delivery;
+
+import org.jetbrains.annotations.NotNull;
+import resto.push.metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Адаптивный таймаут подписчика.
+ * <p>
+ * Задержки ответов подписчика копятся в затухающей гистограмме, эффективный таймаут равен
+ * {@link #P99_MULTIPLIER} x p99, но не выходит за настроенные границы. Таймауты в гистограмму не попадают, а
+ * считаются подряд отдельно для подключения и чтения:
+ * <ul>
+ * <li>пока замеров меньше {@link #MIN_SAMPLES}, используется настроенный таймаут;</li>
+ * <li>после первого таймаута по сокращенному значению следующая попытка идет с настроенным таймаутом, чтобы
+ * медленный, но живой подписчик не получил серию ложных таймаутов: его ответ поднимет p99;</li>
+ * <li>начиная со второго таймаута подряд подписчик считается недоступным, таймаут уменьшается вдвое с каждым
+ * следующим таймаутом, но не ниже {@link #MIN_TIMEOUT_MILLIS}, и попытки завершаются быстро;</li>
+ * <li>любой полученный ответ сбрасывает счетчики.</li>
+ * </ul>
+ *
+ * @see resto.push.configuration.PushSubscriberConfiguration#isAdaptiveTimeout()
+ */
+public class AdaptiveTimeout {
+
+    private static final int MIN_SAMPLES = 20;
+
+    /**
+     * Через сколько замеров вес старых замеров уменьшается вдвое
+     */
+    private static final int DECAY_SAMPLES = 500;
+
+    private static final double P99_MULTIPLIER = 3.0;
+
+    private static final int MIN_TIMEOUT_MILLIS = 200;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private final AtomicInteger samplesSinceDecay = new AtomicInteger();
+
+    private final TimeoutState connectTimeouts = new TimeoutState();
+
+    private final TimeoutState readTimeouts = new TimeoutState();
+
+    /**
+     * Эффективный таймаут.
+     *
+     * @param kind                    - подключение или чтение
+     * @param configuredTimeoutMillis - настроенный таймаут, верхняя граница
+     *
+     * @return таймаут в миллисекундах
+     */
+    public int getTimeoutMillis(@NotNull Kind kind, int configuredTimeoutMillis) {
+        int minTimeoutMillis = Math.min(MIN_TIMEOUT_MILLIS, configuredTimeoutMillis);
+        TimeoutState state = getState(kind);
+        int timeouts = state.consecutive.get();
+        if (timeouts == 1 && state.lastShortened) {
+            return configuredTimeoutMillis;
+        }
+        long timeout = configuredTimeoutMillis;
+        if (histogram.getTotalCount() >= MIN_SAMPLES) {
+            long p99Millis = TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(99));
+            timeout = Math.min((long) (p99Millis * P99_MULTIPLIER), configuredTimeoutMillis);
+        }
+        if (timeouts >= 2) {
+            timeout = Math.min(timeout, configuredTimeoutMillis >> Math.min(timeouts - 1, 30));
+        }
+        return (int) Math.max(timeout, minTimeoutMillis);
+    }
+
+    /**
+     * Наблюдаемая задержка подписчика.
+     *
+     * @param percentile - перцентиль от 0 до 100
+     *
+     * @return задержка в наносекундах или -1, если замеров недостаточно
+     */
+    public long getLatencyPercentileNanos(double percentile) {
+        return histogram.getTotalCount() < MIN_SAMPLES ? -1 : histogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Записываем задержку полученного ответа
+     */
+    public void recordResponse(long roundTripNanos) {
+        connectTimeouts.reset();
+        readTimeouts.reset();
+        histogram.record(roundTripNanos);
+        if (samplesSinceDecay.incrementAndGet() >= DECAY_SAMPLES) {
+            samplesSinceDecay.set(0);
+            histogram.decay();
+        }
+    }
+
+    /**
+     * Записываем таймаут. Задержку он не характеризует и в гистограмму не попадает.
+     *
+     * @param kind                    - подключение или чтение
+     * @param usedTimeoutMillis       - таймаут, с которым выполнялся запрос
+     * @param configuredTimeoutMillis - настроенный таймаут
+     */
+    public void recordTimeout(@NotNull Kind kind, int usedTimeoutMillis, int configuredTimeoutMillis) {
+        TimeoutState state = getState(kind);
+        state.lastShortened = usedTimeoutMillis < configuredTimeoutMillis;
+        state.consecutive.incrementAndGet();
+    }
+
+    @NotNull
+    private TimeoutState getState(@NotNull Kind kind) {
+        return kind == Kind.CONNECT ? connectTimeouts : readTimeouts;
+    }
+
+    /**
+     * Вид таймаута
+     */
+    public enum Kind {
+        CONNECT,
+        READ,
+    }
+
+    /**
+     * Таймауты одного вида подряд
+     */
+    private static class TimeoutState {
+
+        private final AtomicInteger consecutive = new AtomicInteger();
+
+        /**
+         * Последний таймаут был по сокращенному значению
+         */
+        private volatile boolean lastShortened;
+
+        private void reset() {
+            consecutive.set(0);
+            lastShortened = false;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package resto.push.delivery;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.dto.PushNotificationResponseDto;
+
+/**
+ * Результат одной попытки доставить уведомление на end-point подписчика
+ */
+public class DeliveryResult {
+
+    @NotNull
+    private final PushEndpoint endpoint;
+
+    /**
+     * Стандартизированный ответ подписчика, если он получен
+     */
+    @Nullable
+    private final PushNotificationResponseDto response;
+
+    /**
+     * Причина неудачи: reason phrase http-ответа или сообщение исключения
+     */
+    @Nullable
+    private final String failureMessage;
+
+    /**
+     * Исключение, если запрос не выполнился
+     */
+    @Nullable
+    private final Throwable failure;
+
+    private final long roundTripNanos;
+
+    private DeliveryResult(
+        @NotNull PushEndpoint endpoint,
+        @Nullable PushNotificationResponseDto response,
+        @Nullable String failureMessage,
+        @Nullable Throwable failure,
+        long roundTripNanos
+    ) {
+        this.endpoint = endpoint;
+        this.response = response;
+        this.failureMessage = failureMessage;
+        this.failure = failure;
+        this.roundTripNanos = roundTripNanos;
+    }
+
+    public static DeliveryResult acknowledged(
+        @NotNull PushEndpoint endpoint, @NotNull PushNotificationResponseDto response, long roundTripNanos
+    ) {
+        return new DeliveryResult(endpoint, response, null, null, roundTripNanos);
+    }
+
+    public static DeliveryResult rejected(
+        @NotNull PushEndpoint endpoint,
+        @Nullable String reason,
+        long roundTripNanos
+    ) {
+        return new DeliveryResult(endpoint, null, reason, null, roundTripNanos);
+    }
+
+    public static DeliveryResult failed(
+        @NotNull PushEndpoint endpoint,
+        @NotNull Throwable failure,
+        long roundTripNanos
+    ) {
+        return new DeliveryResult(endpoint, null, failure.getMessage(), failure, roundTripNanos);
+    }
+
+    /**
+     * Подписчик вернул стандартизированный ответ (SUCCESS, ERROR или STOP)
+     */
+    public boolean isAcknowledged() {
+        return response != null;
+    }
+
+    @NotNull
+    public PushEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    @Nullable
+    public PushNotificationResponseDto getResponse() {
+        return response;
+    }
+
+    @Nullable
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    @Nullable
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+}
@@ -0,0 +1,238 @@
+package resto.push.delivery;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Адаптивное ограничение числа одновременных доставок на один хост подписчиков.
+ * <p>
+ * Лимит подстраивается по схеме AIMD: растет на 1/limit после каждого быстрого ответа и уменьшается
+ * в {@link #BACKOFF_RATIO} раз при ошибке или ответе, заметно медленнее минимальной наблюдаемой задержки.
+ * Доставка, не получившая разрешения, не занимает поток: она запоминается как ожидающая и заново ставится
+ * в планировщик, когда одна из текущих доставок на этот хост завершится.
+ */
+public class HostConcurrencyLimiter {
+
+    private static final double INITIAL_LIMIT = 4;
+
+    private static final double MIN_LIMIT = 1;
+
+    private static final double MAX_LIMIT = 64;
+
+    /**
+     * Коэффициент уменьшения лимита при перегрузке хоста
+     */
+    private static final double BACKOFF_RATIO = 0.9;
+
+    /**
+     * Во сколько раз задержка может превысить минимальную, прежде чем хост считается перегруженным
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * Через сколько замеров минимальная задержка пересчитывается заново (хост мог стать медленнее навсегда)
+     */
+    private static final int MIN_RTT_WINDOW = 256;
+
+    private final ConcurrentMap<String, HostLimit> limits = new ConcurrentHashMap<>();
+
+    /**
+     * Ключ хоста для url подписчика
+     */
+    @NotNull
+    public static String getHostKey(@NotNull String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getHost() != null) {
+                return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ':' + uri.getPort();
+            }
+        } catch (IllegalArgumentException ignored) {
+            // Некорректный url ограничиваем как отдельный хост, ошибку покажет сама доставка
+        }
+        return url;
+    }
+
+    /**
+     * Пытаемся получить разрешение на доставку.
+     *
+     * @param host        - ключ хоста
+     * @param onAvailable - действие, которое будет выполнено один раз, когда освободится место, если разрешение
+     *                    не получено
+     *
+     * @return true - разрешение получено, по окончании доставки нужно вызвать {@link #release}
+     */
+    public boolean tryAcquire(@NotNull String host, @NotNull Runnable onAvailable) {
+        return limits.computeIfAbsent(host, HostLimit::new).tryAcquire(onAvailable);
+    }
+
+    /**
+     * Занимаем место без учета лимита. Используется для попыток, которые не должны ждать в очереди
+     * (например, переключение на резервный end-point), но должны учитываться в нагрузке на хост.
+     * По окончании доставки нужно вызвать {@link #release}.
+     */
+    public void acquire(@NotNull String host) {
+        limits.computeIfAbsent(host, HostLimit::new).acquire();
+    }
+
+    /**
+     * Освобождаем разрешение и корректируем лимит по результату доставки.
+     *
+     * @param host           - ключ хоста
+     * @param roundTripNanos - длительность запроса к подписчику или отрицательное значение, если запроса не было
+     * @param failed         - запрос завершился ошибкой или таймаутом
+     */
+    public void release(@NotNull String host, long roundTripNanos, boolean failed) {
+        HostLimit limit = limits.get(host);
+        if (limit == null) {
+            return;
+        }
+        Runnable waiter = limit.release(roundTripNanos, failed);
+        if (waiter != null) {
+            waiter.run();
+        }
+    }
+
+    /**
+     * Текущее состояние лимитов по хостам
+     */
+    @NotNull
+    public List<HostLimitState> getState() {
+        List<HostLimitState> state = new ArrayList<>(limits.size());
+        limits.values().forEach(limit -> state.add(limit.getState()));
+        return state;
+    }
+
+    private static class HostLimit {
+
+        @NotNull
+        private final String host;
+
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+        private double limit = INITIAL_LIMIT;
+
+        private int inFlight;
+
+        private long minRoundTripNanos = Long.MAX_VALUE;
+
+        private long windowMinRoundTripNanos = Long.MAX_VALUE;
+
+        private int windowSamples;
+
+        private HostLimit(@NotNull String host) {
+            this.host = host;
+        }
+
+        private synchronized boolean tryAcquire(@NotNull Runnable onAvailable) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            // inFlight >= 1, значит кто-то обязательно вызовет release и разбудит ожидающего
+            waiting.addLast(onAvailable);
+            return false;
+        }
+
+        private synchronized void acquire() {
+            inFlight++;
+        }
+
+        @Nullable
+        private synchronized Runnable release(long roundTripNanos, boolean failed) {
+            int usedPermits = inFlight;
+            inFlight--;
+            if (failed) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+            } else if (roundTripNanos >= 0) {
+                updateMinRoundTrip(roundTripNanos);
+                if (roundTripNanos > minRoundTripNanos * LATENCY_TOLERANCE) {
+                    limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+                } else if (usedPermits * 2 >= limit) {
+                    // Увеличиваем лимит, только если он действительно используется
+                    limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+                }
+            }
+            return inFlight < (int) limit ? waiting.pollFirst() : null;
+        }
+
+        private void updateMinRoundTrip(long roundTripNanos) {
+            minRoundTripNanos = Math.min(minRoundTripNanos, roundTripNanos);
+            windowMinRoundTripNanos = Math.min(windowMinRoundTripNanos, roundTripNanos);
+            if (++windowSamples >= MIN_RTT_WINDOW) {
+                minRoundTripNanos = windowMinRoundTripNanos;
+                windowMinRoundTripNanos = Long.MAX_VALUE;
+                windowSamples = 0;
+            }
+        }
+
+        private synchronized HostLimitState getState() {
+            return new HostLimitState(host, limit, inFlight, waiting.size(),
+                minRoundTripNanos == Long.MAX_VALUE ? -1 : minRoundTripNanos);
+        }
+    }
+
+    /**
+     * Снимок состояния лимита хоста
+     */
+    public static class HostLimitState {
+
+        @NotNull
+        private final String host;
+
+        private final double limit;
+
+        private final int inFlight;
+
+        private final int waiting;
+
+        private final long minRoundTripNanos;
+
+        public HostLimitState(@NotNull String host, double limit, int inFlight, int waiting, long minRoundTripNanos) {
+            this.host = host;
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.waiting = waiting;
+            this.minRoundTripNanos = minRoundTripNanos;
+        }
+
+        @NotNull
+        public String getHost() {
+            return host;
+        }
+
+        public double getLimit() {
+            return limit;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * Минимальная наблюдаемая задержка или -1, если замеров еще не было
+         */
+        public long getMinRoundTripNanos() {
+            return minRoundTripNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "HostLimitState{" +
+                   "host: " + host +
+                   ", limit: " + limit +
+                   ", inFlight: " + inFlight +
+                   ", waiting: " + waiting + '}';
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package resto.push.delivery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
+import org.jetbrains.annotations.NotNull;
+import resto.push.metrics.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Размер body уведомления. Dto сериализуется так же, как http-клиентом уведомителя (разметка полей из
+ * JAXB-аннотаций, json или xml по формату подписчика), но в поток, который только считает байты.
+ *
+ * @see resto.push.metrics.CountingWriterInterceptor
+ */
+final class PayloadSizer {
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().registerModule(new JaxbAnnotationModule());
+
+    private static final ObjectMapper XML_MAPPER = new XmlMapper().registerModule(new JaxbAnnotationModule());
+
+    /**
+     * Поток без записи, байты только считаются
+     */
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @NotNull
+    private final ObjectMapper mapper;
+
+    private PayloadSizer(@NotNull ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param mediaType - формат body подписчика
+     */
+    @NotNull
+    static PayloadSizer forMediaType(@NotNull String mediaType) {
+        return new PayloadSizer(mediaType.toLowerCase().contains("xml") ? XML_MAPPER : JSON_MAPPER);
+    }
+
+    /**
+     * Размер сериализованного dto (в байтах)
+     */
+    int measure(@NotNull Object dto) {
+        CountingOutputStream counting = new CountingOutputStream(DISCARD);
+        try {
+            mapper.writeValue(counting, dto);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return (int) Math.min(counting.getCount(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Размер элемента карты статистики по классам (в байтах). Ключ и разделители считаются с запасом на оба формата:
+     * "имя":значение, в json и &lt;имя&gt;значение&lt;/имя&gt; в xml.
+     */
+    int measureEntry(@NotNull String className, @NotNull Object dto) {
+        return 2 * className.getBytes(StandardCharsets.UTF_8).length + 5 + measure(dto);
+    }
+}
@@ -0,0 +1,266 @@
+package resto.push.delivery;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.dto.ChangeStatisticDto;
+import resto.push.dto.ChangeStatisticItemDto;
+import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.ChangeStatisticItem;
+import resto.push.statistic.EntityIdSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Пакет, подготовленный к отправке подписчику.
+ * <p>
+ * Пакет фиксируется при первой попытке отправки и переотправляется без изменений, пока не будет доставлен.
+ * Если сериализованный пакет больше ограничения подписчика, статистика по классам делится на упорядоченные
+ * части с общим диапазоном ревизий. Статистика класса, которая одна не помещается в часть, делится по id объектов.
+ * Подтвержденные части при повторной попытке не отправляются.
+ */
+public class PushDeliveryBatch {
+
+    @NotNull
+    private final ChangeStatistic statistic;
+
+    @NotNull
+    private final List<ChangeStatisticDto> chunks;
+
+    /**
+     * Ключи идемпотентности частей
+     */
+    @NotNull
+    private final List<UUID> chunkDeliveryIds;
+
+    /**
+     * Размер каждой сериализованной части (в байтах)
+     */
+    @NotNull
+    private final List<Integer> chunkSizes;
+
+    /**
+     * Номер первой неподтвержденной части
+     */
+    private int nextChunk;
+
+    /**
+     * Пакет для подписчика в том же процессе: статистика передается как есть, без частей
+     */
+    private final boolean inProcess;
+
+    private PushDeliveryBatch(
+        @NotNull ChangeStatistic statistic,
+        @NotNull List<ChangeStatisticDto> chunks,
+        @NotNull List<UUID> chunkDeliveryIds,
+        @NotNull List<Integer> chunkSizes,
+        boolean inProcess
+    ) {
+        this.statistic = statistic;
+        this.chunks = chunks;
+        this.chunkDeliveryIds = chunkDeliveryIds;
+        this.chunkSizes = chunkSizes;
+        this.inProcess = inProcess;
+    }
+
+    /**
+     * Готовим пакет к отправке
+     *
+     * @param statistic       - статистика с присвоенным номером доставки
+     * @param maxPayloadBytes - ограничение размера одного уведомления, 0 - без ограничения
+     * @param mediaType       - формат body подписчика, по нему измеряется размер частей
+     */
+    @NotNull
+    public static PushDeliveryBatch prepare(
+        @NotNull ChangeStatistic statistic,
+        int maxPayloadBytes,
+        @NotNull String mediaType
+    ) {
+        PayloadSizer sizer = PayloadSizer.forMediaType(mediaType);
+        ChangeStatisticDto whole = ChangeStatisticDto.toDto(statistic);
+        int wholeSize = sizer.measure(whole);
+        if (maxPayloadBytes <= 0 || wholeSize <= maxPayloadBytes || statistic.getClassStatistics().isEmpty()) {
+            return new PushDeliveryBatch(statistic, Collections.singletonList(whole),
+                Collections.singletonList(statistic.getDeliveryId()), Collections.singletonList(wholeSize), false);
+        }
+
+        // Поля части без статистики по классам, номера части с запасом на самые длинные
+        int headerSize = sizer.measure(ChangeStatisticDto.toChunkDto(statistic, Collections.emptyMap(),
+            Integer.MAX_VALUE, Integer.MAX_VALUE, statistic.getDeliveryId()));
+        List<Map<String, ChangeStatisticItemDto>> groups = new ArrayList<>();
+        Map<String, ChangeStatisticItemDto> group = new HashMap<>();
+        int groupSize = headerSize;
+        // Классы упорядочены, чтобы деление пакета было детерминированным
+        for (String className : new TreeSet<>(statistic.getClassStatistics().keySet())) {
+            ChangeStatisticItem item = statistic.getClassStatistics().get(className);
+            for (ChangeStatisticItemDto part : split(sizer, className, item, maxPayloadBytes - headerSize)) {
+                int partSize = sizer.measureEntry(className, part);
+                if (!group.isEmpty() && (groupSize + partSize > maxPayloadBytes || group.containsKey(className))) {
+                    groups.add(group);
+                    group = new HashMap<>();
+                    groupSize = headerSize;
+                }
+                group.put(className, part);
+                groupSize += partSize;
+            }
+        }
+        groups.add(group);
+
+        int chunkCount = groups.size();
+        List<ChangeStatisticDto> chunks = new ArrayList<>(chunkCount);
+        List<UUID> chunkDeliveryIds = new ArrayList<>(chunkCount);
+        List<Integer> chunkSizes = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            UUID chunkDeliveryId = UUID.nameUUIDFromBytes(
+                (statistic.getDeliveryId() + ":" + i).getBytes(StandardCharsets.UTF_8));
+            ChangeStatisticDto chunk = ChangeStatisticDto.toChunkDto(statistic, groups.get(i), i, chunkCount,
+                chunkDeliveryId);
+            chunks.add(chunk);
+            chunkDeliveryIds.add(chunkDeliveryId);
+            // Ограничение частоты по объему расходуется по реальному размеру части
+            chunkSizes.add(sizer.measure(chunk));
+        }
+        return new PushDeliveryBatch(statistic, Collections.unmodifiableList(chunks),
+            Collections.unmodifiableList(chunkDeliveryIds), Collections.unmodifiableList(chunkSizes), false);
+    }
+
+    /**
+     * Делим статистику класса по id объектов на части, каждая из которых помещается в заданный размер.
+     * Количества частей - количества их id, остаток количеств без id попадает в первую часть.
+     *
+     * @param maxItemBytes - место в части под статистику класса (в байтах)
+     *
+     * @return части статистики класса; одна, если статистика помещается целиком или id не передаются
+     */
+    @NotNull
+    private static List<ChangeStatisticItemDto> split(
+        @NotNull PayloadSizer sizer,
+        @NotNull String className,
+        @NotNull ChangeStatisticItem item,
+        int maxItemBytes
+    ) {
+        ChangeStatisticItemDto whole = ChangeStatisticItemDto.toDto(item);
+        List<UUID> createdIds = toList(item.getCreatedIds());
+        List<UUID> updatedIds = toList(item.getUpdatedIds());
+        List<UUID> deletedIds = toList(item.getDeletedIds());
+        int idCount = createdIds.size() + updatedIds.size() + deletedIds.size();
+        int wholeSize = sizer.measureEntry(className, whole);
+        if (wholeSize <= maxItemBytes || idCount <= 1) {
+            return Collections.singletonList(whole);
+        }
+        // id одного формата, поэтому место под id делим поровну и сериализуем только статистику без id
+        int baseSize = sizer.measureEntry(className,
+            new ChangeStatisticItemDto(className, item.getCreated(), item.getUpdated(), item.getDeleted()));
+        int idBytes = Math.max((wholeSize - baseSize + idCount - 1) / idCount, 1);
+        int idsPerPart = Math.max((maxItemBytes - baseSize) / idBytes, 1);
+        List<ChangeStatisticItemDto> parts = new ArrayList<>((idCount + idsPerPart - 1) / idsPerPart);
+        for (int from = 0; from < idCount; from += idsPerPart) {
+            int to = Math.min(from + idsPerPart, idCount);
+            List<UUID> created = slice(createdIds, from, to);
+            List<UUID> updated = slice(updatedIds, from - createdIds.size(), to - createdIds.size());
+            List<UUID> deleted = slice(deletedIds, from - createdIds.size() - updatedIds.size(),
+                to - createdIds.size() - updatedIds.size());
+            boolean first = from == 0;
+            parts.add(new ChangeStatisticItemDto(className,
+                created.size() + (first ? item.getCreated() - createdIds.size() : 0),
+                updated.size() + (first ? item.getUpdated() - updatedIds.size() : 0),
+                deleted.size() + (first ? item.getDeleted() - deletedIds.size() : 0),
+                item.getCreatedIds() == null ? null : created,
+                item.getUpdatedIds() == null ? null : updated,
+                item.getDeletedIds() == null ? null : deleted));
+        }
+        return parts;
+    }
+
+    /**
+     * Id множества или пустой список, если id не передаются
+     */
+    @NotNull
+    private static List<UUID> toList(@Nullable EntityIdSet ids) {
+        List<UUID> list = ids == null ? null : ids.toList();
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    /**
+     * Часть списка [from, to), границы приводятся к размеру списка
+     */
+    @NotNull
+    private static List<UUID> slice(@NotNull List<UUID> list, int from, int to) {
+        int start = Math.max(Math.min(from, list.size()), 0);
+        int end = Math.max(Math.min(to, list.size()), start);
+        return new ArrayList<>(list.subList(start, end));
+    }
+
+    /**
+     * Готовим пакет для подписчика в том же процессе. Dto не создаются, статистика не делится на части.
+     *
+     * @param statistic - статистика с присвоенным номером доставки
+     *
+     * @see resto.push.PushChangeListener
+     */
+    @NotNull
+    public static PushDeliveryBatch inProcess(@NotNull ChangeStatistic statistic) {
+        return new PushDeliveryBatch(statistic, Collections.emptyList(), Collections.emptyList(),
+            Collections.emptyList(), true);
+    }
+
+    public boolean isInProcess() {
+        return inProcess;
+    }
+
+    /**
+     * Остались неподтвержденные части
+     */
+    public boolean hasNextChunk() {
+        return nextChunk < chunks.size();
+    }
+
+    /**
+     * Первая неподтвержденная часть
+     */
+    @NotNull
+    public ChangeStatisticDto getNextChunk() {
+        return chunks.get(nextChunk);
+    }
+
+    /**
+     * Ключ идемпотентности первой неподтвержденной части
+     */
+    @NotNull
+    public String getNextChunkDeliveryId() {
+        return String.valueOf(chunkDeliveryIds.get(nextChunk));
+    }
+
+    /**
+     * Размер первой неподтвержденной части (в байтах)
+     */
+    public int getNextChunkSize() {
+        return chunkSizes.get(nextChunk);
+    }
+
+    public int getNextChunkIndex() {
+        return nextChunk;
+    }
+
+    /**
+     * Часть доставлена
+     */
+    public void acknowledgeChunk() {
+        nextChunk++;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    @NotNull
+    public ChangeStatistic getStatistic() {
+        return statistic;
+    }
+}
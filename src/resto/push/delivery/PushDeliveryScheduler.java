@@ -0,0 +1,259 @@
+package resto.push.delivery;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.core.threadpool.ActivityExecutors;
+import resto.db.Guid;
+import resto.utils.log4j.RestoLogger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Планировщик задач доставки push-уведомлений.
+ * <p>
+ * Задачи всех подписчиков разбираются общим пулом по алгоритму справедливой очереди с виртуальным временем
+ * (start-time fair queuing): задаче присваивается виртуальное время начала - максимум из текущего виртуального
+ * времени и времени окончания предыдущей задачи того же подписчика, задача стоит {@link #TASK_COST} / вес.
+ * Первой выполняется задача с наименьшим временем начала. Время окончания подписчика помнится и между его задачами,
+ * поэтому вес действует, даже когда у подписчика в очереди не больше одной задачи: задачи тяжелого подписчика
+ * встают в очередь дальше, чем задачи подписчика с большим весом. Подписчик без задач в очереди забывается, как только
+ * виртуальное время догоняет его время окончания: дальше он и так начнет с текущего виртуального времени. Когда
+ * очередь пустеет, виртуальное время переходит к наибольшему времени окончания, и забываются все подписчики.
+ * <p>
+ * Очередь не ограничена, поэтому задачи не отклоняются, а задержка подписчика ограничена задачами, поставленными
+ * раньше с меньшим временем начала.
+ *
+ * @see resto.push.configuration.PushSubscriberConfiguration#getDeliveryWeight()
+ */
+public class PushDeliveryScheduler {
+
+    private static final RestoLogger LOG = RestoLogger.getLogger(PushDeliveryScheduler.class);
+
+    /**
+     * Виртуальная стоимость задачи подписчика с весом 1
+     */
+    private static final long TASK_COST = 1_000_000;
+
+    /**
+     * Пул потоков, разбирающих очередь
+     */
+    @NotNull
+    private final ExecutorService workers;
+
+    /**
+     * Максимальное число одновременно работающих потоков
+     */
+    private final int maxWorkers;
+
+    /**
+     * Задачи в порядке виртуального времени начала
+     */
+    private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<>();
+
+    /**
+     * Подписчики, у которых есть задачи в очереди или время окончания опережает виртуальное время
+     */
+    private final Map<Guid, Subscriber> subscribers = new HashMap<>();
+
+    /**
+     * Подписчики, оставшиеся без задач, в порядке времени окончания. Удаляются из {@link #subscribers}, когда их
+     * догоняет виртуальное время.
+     */
+    private final PriorityQueue<IdleSubscriber> idleSubscribers = new PriorityQueue<>();
+
+    /**
+     * Виртуальное время: время начала последней выбранной задачи
+     */
+    private long virtualTime;
+
+    /**
+     * Наибольшее время окончания среди поставленных задач
+     */
+    private long maxFinishTag;
+
+    /**
+     * Порядковый номер задачи, упорядочивает задачи с одинаковым временем начала
+     */
+    private long taskSequence;
+
+    /**
+     * Число потоков, разбирающих очередь в данный момент
+     */
+    private int runningWorkers;
+
+    public PushDeliveryScheduler(int maxWorkers, @NotNull ThreadFactory threadFactory) {
+        this.maxWorkers = maxWorkers;
+        // Очередь пула не растет больше maxWorkers, т.к. число запущенных разборщиков ограничено
+        this.workers = ActivityExecutors.newThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    /**
+     * Ставим задачу в очередь
+     *
+     * @param subscriberId - id конфигурации подписчика
+     * @param weight       - вес подписчика, не меньше 1
+     * @param task         - задача доставки
+     */
+    public void submit(@NotNull Guid subscriberId, int weight, @NotNull Runnable task) {
+        boolean startWorker;
+        synchronized (this) {
+            Subscriber subscriber = subscribers.computeIfAbsent(subscriberId, Subscriber::new);
+            long startTag = Math.max(virtualTime, subscriber.finishTag);
+            subscriber.finishTag = startTag + TASK_COST / Math.max(weight, 1);
+            maxFinishTag = Math.max(maxFinishTag, subscriber.finishTag);
+            subscriber.queuedTasks++;
+            tasks.add(new ScheduledTask(subscriber, startTag, taskSequence++, task));
+            startWorker = runningWorkers < maxWorkers;
+            if (startWorker) {
+                runningWorkers++;
+            }
+        }
+        if (startWorker) {
+            workers.execute(this::drain);
+        }
+    }
+
+    /**
+     * Разбираем очередь, пока в ней есть задачи
+     */
+    private void drain() {
+        Runnable task;
+        while ((task = next()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error.format(t, "Unexpected error in push delivery task");
+            }
+        }
+    }
+
+    /**
+     * Выбираем задачу с наименьшим виртуальным временем начала
+     *
+     * @return задача или null, если очередь пуста (поток разборщика при этом завершается)
+     */
+    @Nullable
+    private synchronized Runnable next() {
+        ScheduledTask next = tasks.poll();
+        if (next == null) {
+            // Период занятости закончился: все поставленные задачи выбраны, никто ни с кем не соревнуется
+            virtualTime = maxFinishTag;
+            removeIdleSubscribers();
+            runningWorkers--;
+            return null;
+        }
+        virtualTime = Math.max(virtualTime, next.startTag);
+        Subscriber subscriber = next.subscriber;
+        if (--subscriber.queuedTasks == 0) {
+            idleSubscribers.add(new IdleSubscriber(subscriber, subscriber.finishTag));
+        }
+        removeIdleSubscribers();
+        return next.task;
+    }
+
+    /**
+     * Забываем подписчиков без задач, которых догнало виртуальное время. Запись в очереди простаивающих устаревает,
+     * если подписчик с тех пор поставил задачу, такие записи пропускаются.
+     */
+    private void removeIdleSubscribers() {
+        IdleSubscriber idle;
+        while ((idle = idleSubscribers.peek()) != null && idle.finishTag <= virtualTime) {
+            idleSubscribers.poll();
+            Subscriber subscriber = idle.subscriber;
+            if (subscriber.queuedTasks == 0 && subscriber.finishTag == idle.finishTag) {
+                subscribers.remove(subscriber.id, subscriber);
+            }
+        }
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    public synchronized int getRunningWorkers() {
+        return runningWorkers;
+    }
+
+    public synchronized int getQueuedTasks() {
+        return tasks.size();
+    }
+
+    /**
+     * Задача в очереди
+     */
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+
+        @NotNull
+        private final Subscriber subscriber;
+
+        private final long startTag;
+
+        private final long sequence;
+
+        @NotNull
+        private final Runnable task;
+
+        private ScheduledTask(@NotNull Subscriber subscriber, long startTag, long sequence, @NotNull Runnable task) {
+            this.subscriber = subscriber;
+            this.startTag = startTag;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(@NotNull ScheduledTask other) {
+            int result = Long.compare(startTag, other.startTag);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+    /**
+     * Состояние подписчика в планировщике
+     */
+    private static class Subscriber {
+
+        @NotNull
+        private final Guid id;
+
+        /**
+         * Виртуальное время окончания последней поставленной задачи подписчика
+         */
+        private long finishTag;
+
+        /**
+         * Число задач подписчика в очереди
+         */
+        private int queuedTasks;
+
+        private Subscriber(@NotNull Guid id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Подписчик, оставшийся без задач, со временем окончания на этот момент
+     */
+    private static class IdleSubscriber implements Comparable<IdleSubscriber> {
+
+        @NotNull
+        private final Subscriber subscriber;
+
+        private final long finishTag;
+
+        private IdleSubscriber(@NotNull Subscriber subscriber, long finishTag) {
+            this.subscriber = subscriber;
+            this.finishTag = finishTag;
+        }
+
+        @Override
+        public int compareTo(@NotNull IdleSubscriber other) {
+            return Long.compare(finishTag, other.finishTag);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package resto.push.delivery;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.RestoProperties;
+import resto.push.configuration.PushSubscriberConfiguration;
+import resto.push.dto.ChangeStatisticDto;
+import resto.push.dto.PushNotificationResponseDto;
+import resto.push.metrics.CountingWriterInterceptor;
+import resto.push.metrics.PushNotifierMetrics;
+import resto.utils.log4j.RestoLogger;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import static resto.core.RestoServiceLocator.get;
+
+/**
+ * End-point подписчика. Хранит http-клиент (соединения переиспользуются между уведомлениями) и статистику
+ * задержек, по которой подстраиваются таймауты и момент дублирования запроса.
+ */
+public class PushEndpoint {
+
+    private static final RestoLogger LOG = RestoLogger.getLogger(PushEndpoint.class);
+
+    /**
+     * Сколько end-point считается недоступным после неудачной попытки
+     */
+    private static final long DOWN_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @NotNull
+    private final String subscriberAlias;
+
+    @NotNull
+    private final String url;
+
+    /**
+     * Ключ хоста для ограничения одновременных доставок
+     */
+    @NotNull
+    private final String hostKey;
+
+    @NotNull
+    private final AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout();
+
+    /**
+     * Метрики уведомителя, которому принадлежит end-point
+     */
+    @NotNull
+    private final PushNotifierMetrics metrics;
+
+    @Nullable
+    private volatile Client client;
+
+    /**
+     * До какого момента end-point считается недоступным
+     */
+    private volatile long downUntilMillis;
+
+    /**
+     * Таймаут чтения из настроек сервера
+     */
+    @NotNull
+    private final IntSupplier serverReadTimeoutMillis;
+
+    public PushEndpoint(@NotNull String subscriberAlias, @NotNull String url, @NotNull PushNotifierMetrics metrics) {
+        this(subscriberAlias, url, metrics, () -> get(RestoProperties.class).getPushNotificationReadTimeoutMillis());
+    }
+
+    public PushEndpoint(
+        @NotNull String subscriberAlias,
+        @NotNull String url,
+        @NotNull PushNotifierMetrics metrics,
+        @NotNull IntSupplier readTimeoutMillis
+    ) {
+        this.subscriberAlias = subscriberAlias;
+        this.url = url;
+        this.metrics = metrics;
+        this.serverReadTimeoutMillis = readTimeoutMillis;
+        this.hostKey = HostConcurrencyLimiter.getHostKey(url);
+    }
+
+    /**
+     * Синхронная отправка уведомления. Не бросает исключений, любая ошибка возвращается как результат.
+     */
+    @NotNull
+    public DeliveryResult send(
+        @NotNull Entity<ChangeStatisticDto> body,
+        @NotNull String idempotencyKey,
+        @NotNull PushSubscriberConfiguration configuration
+    ) {
+        Timeouts timeouts = new Timeouts(configuration);
+        long startNanos = System.nanoTime();
+        try {
+            Response response = request(timeouts, idempotencyKey).buildPost(body).invoke();
+            return onResponse(response, startNanos);
+        } catch (RuntimeException e) {
+            return onFailure(e, startNanos, timeouts);
+        }
+    }
+
+    /**
+     * Асинхронная отправка уведомления. Возвращаемый future всегда завершается нормально.
+     */
+    @NotNull
+    public CompletableFuture<DeliveryResult> sendAsync(
+        @NotNull Entity<ChangeStatisticDto> body,
+        @NotNull String idempotencyKey,
+        @NotNull PushSubscriberConfiguration configuration
+    ) {
+        CompletableFuture<DeliveryResult> future = new CompletableFuture<>();
+        Timeouts timeouts = new Timeouts(configuration);
+        long startNanos = System.nanoTime();
+        try {
+            request(timeouts, idempotencyKey).async().post(body, new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    try {
+                        future.complete(onResponse(response, startNanos));
+                    } catch (RuntimeException e) {
+                        future.complete(onFailure(e, startNanos, timeouts));
+                    }
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    future.complete(onFailure(t, startNanos, timeouts));
+                }
+            });
+        } catch (RuntimeException e) {
+            future.complete(onFailure(e, startNanos, timeouts));
+        }
+        return future;
+    }
+
+    private Invocation.Builder request(@NotNull Timeouts timeouts, @NotNull String idempotencyKey) {
+        return getClient().target(url)
+            .property(ClientProperties.CONNECT_TIMEOUT, timeouts.connectTimeoutMillis)
+            .property(ClientProperties.READ_TIMEOUT, timeouts.readTimeoutMillis)
+            .request()
+            .header(ChangeStatisticDto.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+    }
+
+    private DeliveryResult onResponse(@NotNull Response response, long startNanos) {
+        long roundTripNanos = System.nanoTime() - startNanos;
+        adaptiveTimeout.recordResponse(roundTripNanos);
+        if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            // Если пришел http-response, то читаем статус из стандартизированного body
+            return DeliveryResult.acknowledged(this, response.readEntity(PushNotificationResponseDto.class),
+                roundTripNanos);
+        }
+        LOG.error.format("Bad http response from subscriber %s, url: %s, code: %s, reason: %s, body: %s",
+            subscriberAlias,
+            url,
+            response.getStatusInfo().getStatusCode(),
+            response.getStatusInfo().getReasonPhrase(),
+            response.readEntity(String.class));
+        return DeliveryResult.rejected(this, response.getStatusInfo().getReasonPhrase(), roundTripNanos);
+    }
+
+    private DeliveryResult onFailure(@NotNull Throwable t, long startNanos, @NotNull Timeouts timeouts) {
+        long roundTripNanos = System.nanoTime() - startNanos;
+        AdaptiveTimeout.Kind timeoutKind = getTimeoutKind(t);
+        if (timeoutKind == AdaptiveTimeout.Kind.CONNECT) {
+            adaptiveTimeout.recordTimeout(timeoutKind, timeouts.connectTimeoutMillis,
+                timeouts.configuredConnectTimeoutMillis);
+        } else if (timeoutKind == AdaptiveTimeout.Kind.READ) {
+            adaptiveTimeout.recordTimeout(timeoutKind, timeouts.readTimeoutMillis,
+                timeouts.configuredReadTimeoutMillis);
+        }
+        LOG.error.format(t, "Error occurred while processing subscriber %s, url: %s", subscriberAlias, url);
+        return DeliveryResult.failed(this, t, roundTripNanos);
+    }
+
+    /**
+     * Вид таймаута, которым завершился запрос
+     *
+     * @return null - запрос завершился не по таймауту
+     */
+    @Nullable
+    private static AdaptiveTimeout.Kind getTimeoutKind(@Nullable Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            // Таймаут подключения: SocketTimeoutException("connect timed out") или *ConnectTimeoutException клиента
+            if (cause.getClass().getSimpleName().endsWith("ConnectTimeoutException")) {
+                return AdaptiveTimeout.Kind.CONNECT;
+            }
+            if (cause instanceof SocketTimeoutException) {
+                String message = cause.getMessage();
+                return message != null && message.toLowerCase().contains("connect")
+                    ? AdaptiveTimeout.Kind.CONNECT
+                    : AdaptiveTimeout.Kind.READ;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private Client getClient() {
+        Client result = client;
+        if (result == null) {
+            synchronized (this) {
+                result = client;
+                if (result == null) {
+                    result = ClientBuilder.newClient()
+                        .register(new CountingWriterInterceptor(metrics, subscriberAlias));
+                    client = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Задержка, после которой имеет смысл продублировать запрос на следующий end-point.
+     *
+     * @return задержка в наносекундах или -1, если замеров недостаточно
+     */
+    public long getHedgeDelayNanos() {
+        return adaptiveTimeout.getLatencyPercentileNanos(95);
+    }
+
+    /**
+     * Считаем end-point недоступным на некоторое время, при отправке он будет опрошен после доступных
+     */
+    public void markDown() {
+        downUntilMillis = System.currentTimeMillis() + DOWN_PERIOD_MILLIS;
+    }
+
+    public boolean isAvailable() {
+        return System.currentTimeMillis() >= downUntilMillis;
+    }
+
+    /**
+     * Закрываем http-клиент вместе с его соединениями
+     */
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    @NotNull
+    public String getUrl() {
+        return url;
+    }
+
+    @NotNull
+    public String getHostKey() {
+        return hostKey;
+    }
+
+    /**
+     * Таймауты одного запроса
+     */
+    private class Timeouts {
+
+        private final int connectTimeoutMillis;
+
+        private final int readTimeoutMillis;
+
+        private final int configuredConnectTimeoutMillis;
+
+        private final int configuredReadTimeoutMillis;
+
+        private Timeouts(@NotNull PushSubscriberConfiguration configuration) {
+            configuredConnectTimeoutMillis = configuration.getConnectTimeoutMillis();
+            configuredReadTimeoutMillis = serverReadTimeoutMillis.getAsInt();
+            if (configuration.isAdaptiveTimeout()) {
+                connectTimeoutMillis =
+                    adaptiveTimeout.getTimeoutMillis(AdaptiveTimeout.Kind.CONNECT, configuredConnectTimeoutMillis);
+                readTimeoutMillis =
+                    adaptiveTimeout.getTimeoutMillis(AdaptiveTimeout.Kind.READ, configuredReadTimeoutMillis);
+            } else {
+                connectTimeoutMillis = configuredConnectTimeoutMillis;
+                readTimeoutMillis = configuredReadTimeoutMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package resto.push.delivery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket для ограничения частоты уведомлений подписчика.
+ * Емкость равна пополнению за одну секунду. Запрос дороже емкости пропускается, когда корзина полна,
+ * иначе он никогда не прошел бы.
+ */
+public class TokenBucket {
+
+    private final double tokensPerSecond;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long lastRefillNanos;
+
+    public TokenBucket(double tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        this.capacity = Math.max(tokensPerSecond, 1);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Сколько ждать, пока в корзине наберется нужное количество токенов
+     *
+     * @return время ожидания в наносекундах, 0 - токенов достаточно
+     */
+    public synchronized long getWaitNanos(double cost) {
+        refill();
+        double missing = Math.min(cost, capacity) - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / tokensPerSecond * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Забираем токены. Баланс может уйти в минус, если запрос дороже емкости.
+     */
+    public synchronized void consume(double cost) {
+        refill();
+        tokens -= cost;
+    }
+
+    public double getTokensPerSecond() {
+        return tokensPerSecond;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+}
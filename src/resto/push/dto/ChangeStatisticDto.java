@@ -10,6 +10,7 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -20,6 +21,11 @@ import java.util.UUID;
  */
 @XmlAccessorType(XmlAccessType.NONE)
 public class ChangeStatisticDto {
+    /**
+     * Заголовок запроса-уведомления с ключом идемпотентности
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     /**
      * Номер ревизии
      */
@@ -49,6 +55,56 @@ public class ChangeStatisticDto {
     @XmlElement
     private UUID instanceId;
 
+    /**
+     * Порядковый номер доставки. Монотонно растет в рамках конфигурации и запуска сервера (instanceId).
+     * Повторные попытки отправки одного пакета имеют тот же номер.
+     */
+    @XmlElement
+    private long sequenceNumber;
+
+    /**
+     * Ключ идемпотентности. Совпадает для всех повторных попыток отправки одного пакета,
+     * дублируется в заголовке {@value #IDEMPOTENCY_KEY_HEADER}.
+     */
+    @XmlElement
+    @Nullable
+    private UUID deliveryId;
+
+    /**
+     * Ключ идемпотентности пакета, если пакет разбит на части. Совпадает у всех частей пакета.
+     * Части покрывают один и тот же диапазон ревизий.
+     */
+    @XmlElement
+    @Nullable
+    private UUID batchId;
+
+    /**
+     * Номер части пакета, начиная с 0
+     */
+    @XmlElement
+    private int chunkIndex;
+
+    /**
+     * Количество частей пакета
+     */
+    @XmlElement
+    private int chunkCount = 1;
+
+    /**
+     * Ревизия, после которой часть изменений не была сохранена сервером. Если задана, подписчик должен заново
+     * перечитать все данные, измененные после этой ревизии, статистика по классам в пакете неполная.
+     */
+    @XmlElement
+    @Nullable
+    private Integer resyncSinceRevision;
+
+    /**
+     * Пакет - снимок: created классов содержит количества существующих объектов на ревизию revisionTo, а не
+     * изменения. Следующие пакеты продолжают с этой ревизии.
+     */
+    @XmlElement
+    private boolean snapshot;
+
     /**
      * Статистика в разрезе по классам
      */
@@ -62,19 +118,66 @@ public class ChangeStatisticDto {
         @NotNull UUID configurationId,
         @NotNull UUID instanceId,
         @NotNull Map<String, ChangeStatisticItemDto> classStatistics
+    ) {
+        this(revisionFrom, revisionTo, configurationId, instanceId, 0, null, classStatistics);
+    }
+
+    public ChangeStatisticDto(
+        int revisionFrom,
+        int revisionTo,
+        @NotNull UUID configurationId,
+        @NotNull UUID instanceId,
+        long sequenceNumber,
+        @Nullable UUID deliveryId,
+        @NotNull Map<String, ChangeStatisticItemDto> classStatistics
     ) {
         this.revisionFrom = revisionFrom;
         this.revisionTo = revisionTo;
         this.configurationId = configurationId;
         this.instanceId = instanceId;
-        this.classStatistics = new HashMap<>(classStatistics);
+        this.sequenceNumber = sequenceNumber;
+        this.deliveryId = deliveryId;
+        // Упорядоченная карта, чтобы повторная отправка пакета давала побайтно тот же body
+        this.classStatistics = new TreeMap<>(classStatistics);
     }
 
     public static ChangeStatisticDto toDto(ChangeStatistic statistic) {
         Map<String, ChangeStatisticItemDto> items = new HashMap<>();
         statistic.getClassStatistics().forEach((className, statisticItem) -> items.put(className,
             ChangeStatisticItemDto.toDto(statisticItem)));
-        return new ChangeStatisticDto(statistic.getRevisionFrom(), statistic.getRevisionTo(),
-            statistic.getConfigurationId(), statistic.getInstanceId(), items);
+        ChangeStatisticDto dto = new ChangeStatisticDto(statistic.getRevisionFrom(), statistic.getRevisionTo(),
+            statistic.getConfigurationId(), statistic.getInstanceId(), statistic.getSequenceNumber(),
+            statistic.getDeliveryId(), items);
+        dto.resyncSinceRevision = statistic.getResyncSinceRevision();
+        dto.snapshot = statistic.isSnapshot();
+        return dto;
+    }
+
+    /**
+     * Часть пакета, содержащая статистику только по части классов. Статистика класса с большим количеством id может
+     * быть разделена между несколькими частями: количества и id частей в сумме дают статистику класса.
+     *
+     * @param statistic  - статистика пакета
+     * @param items      - статистика классов, попадающая в часть
+     * @param chunkIndex - номер части
+     * @param chunkCount - количество частей
+     * @param deliveryId - ключ идемпотентности части
+     */
+    public static ChangeStatisticDto toChunkDto(
+        @NotNull ChangeStatistic statistic,
+        @NotNull Map<String, ChangeStatisticItemDto> items,
+        int chunkIndex,
+        int chunkCount,
+        @NotNull UUID deliveryId
+    ) {
+        ChangeStatisticDto dto = new ChangeStatisticDto(statistic.getRevisionFrom(), statistic.getRevisionTo(),
+            statistic.getConfigurationId(), statistic.getInstanceId(), statistic.getSequenceNumber(), deliveryId,
+            items);
+        dto.batchId = statistic.getDeliveryId();
+        dto.chunkIndex = chunkIndex;
+        dto.chunkCount = chunkCount;
+        dto.resyncSinceRevision = statistic.getResyncSinceRevision();
+        dto.snapshot = statistic.isSnapshot();
+        return dto;
     }
 }
\ No newline at end of file
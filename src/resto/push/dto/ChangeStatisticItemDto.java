@@ -1,11 +1,15 @@
 package resto.push.dto;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import resto.push.statistic.ChangeStatisticItem;
+import resto.push.statistic.EntityIdSet;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Dto для передачи статистики в push-уведомлении
@@ -40,6 +44,30 @@ public class ChangeStatisticItemDto {
     @XmlElement
     private int deleted;
 
+    /**
+     * Id созданных объектов. Передаются, если подписчик их запросил и их не больше ограничения на класс,
+     * иначе только количества.
+     *
+     * @see resto.push.configuration.PushSubscriberConfiguration#isIncludeEntityIds()
+     */
+    @XmlElement
+    @Nullable
+    private List<UUID> createdIds;
+
+    /**
+     * Id обновленных объектов
+     */
+    @XmlElement
+    @Nullable
+    private List<UUID> updatedIds;
+
+    /**
+     * Id удаленных объектов
+     */
+    @XmlElement
+    @Nullable
+    private List<UUID> deletedIds;
+
     public ChangeStatisticItemDto(@NotNull String className, int created, int updated, int deleted) {
         this.entityClassName = className;
         this.created = created;
@@ -47,8 +75,32 @@ public class ChangeStatisticItemDto {
         this.deleted = deleted;
     }
 
+    public ChangeStatisticItemDto(
+        @NotNull String className,
+        int created,
+        int updated,
+        int deleted,
+        @Nullable List<UUID> createdIds,
+        @Nullable List<UUID> updatedIds,
+        @Nullable List<UUID> deletedIds
+    ) {
+        this(className, created, updated, deleted);
+        this.createdIds = createdIds;
+        this.updatedIds = updatedIds;
+        this.deletedIds = deletedIds;
+    }
+
     public static ChangeStatisticItemDto toDto(ChangeStatisticItem statisticItem) {
-        return new ChangeStatisticItemDto(statisticItem.getEntityClassName(), statisticItem.getCreated(),
-                statisticItem.getUpdated(), statisticItem.getDeleted());
+        ChangeStatisticItemDto dto = new ChangeStatisticItemDto(statisticItem.getEntityClassName(),
+            statisticItem.getCreated(), statisticItem.getUpdated(), statisticItem.getDeleted());
+        dto.createdIds = toList(statisticItem.getCreatedIds());
+        dto.updatedIds = toList(statisticItem.getUpdatedIds());
+        dto.deletedIds = toList(statisticItem.getDeletedIds());
+        return dto;
+    }
+
+    @Nullable
+    private static List<UUID> toList(@Nullable EntityIdSet ids) {
+        return ids == null ? null : ids.toList();
     }
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package resto.push.dto;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+
+/**
+ * Стандартизированный ответ подписчика на push-уведомление.
+ * Является частью API сервера. Но для избежания циклической зависимости между модулями расположен тут.
+ *
+ * @see <a href='https://wiki.iiko.ru/pages/viewpage.action?pageId=63414583'>Push-уведомления</a>
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@JsonAutoDetect(
+    fieldVisibility = JsonAutoDetect.Visibility.ANY,
+    getterVisibility = JsonAutoDetect.Visibility.NONE,
+    setterVisibility = JsonAutoDetect.Visibility.NONE
+)
+public class PushNotificationResponseDto {
+
+    /**
+     * Результат обработки уведомления: SUCCESS, ERROR или STOP
+     */
+    @XmlElement
+    private String result;
+
+    /**
+     * Сообщение подписчика
+     */
+    @XmlElement
+    private String message;
+
+    public PushNotificationResponseDto() {
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
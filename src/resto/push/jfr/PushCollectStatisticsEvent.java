@@ -0,0 +1,30 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Сборка пакета уведомителем из очереди статистик флашей
+ */
+@Name("resto.push.CollectStatistics")
+@Label("Push Collect Statistics")
+@Category({"Resto", "Push"})
+public class PushCollectStatisticsEvent extends Event {
+
+    @Label("Subscriber Alias")
+    public String subscriberAlias;
+
+    @Label("Revision From")
+    public int revisionFrom;
+
+    @Label("Revision To")
+    public int revisionTo;
+
+    @Label("Class Count")
+    public int classCount;
+
+    @Label("Drained Statistics")
+    public int drainedStatistics;
+}
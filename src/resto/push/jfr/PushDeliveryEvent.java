@@ -0,0 +1,36 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Http-запрос уведомления к end-point'у подписчика
+ */
+@Name("resto.push.Delivery")
+@Label("Push Delivery")
+@Category({"Resto", "Push"})
+public class PushDeliveryEvent extends Event {
+
+    @Label("Subscriber Alias")
+    public String subscriberAlias;
+
+    @Label("Url")
+    public String url;
+
+    @Label("Revision From")
+    public int revisionFrom;
+
+    @Label("Revision To")
+    public int revisionTo;
+
+    @Label("Sequence Number")
+    public long sequenceNumber;
+
+    @Label("Class Count")
+    public int classCount;
+
+    @Label("Acknowledged")
+    public boolean acknowledged;
+}
@@ -0,0 +1,24 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Запись PushNotificationEvent в БД
+ */
+@Name("resto.push.EventWrite")
+@Label("Push Event Write")
+@Category({"Resto", "Push"})
+public class PushEventWriteEvent extends Event {
+
+    @Label("Subscriber Alias")
+    public String subscriberAlias;
+
+    @Label("Revision From")
+    public int revisionFrom;
+
+    @Label("Revision To")
+    public int revisionTo;
+}
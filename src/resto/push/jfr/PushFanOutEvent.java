@@ -0,0 +1,21 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Раздача статистики флаша уведомителям
+ */
+@Name("resto.push.FanOut")
+@Label("Push Fan-Out")
+@Category({"Resto", "Push"})
+public class PushFanOutEvent extends Event {
+
+    @Label("Revision")
+    public int revision;
+
+    @Label("Notifier Count")
+    public int notifierCount;
+}
@@ -0,0 +1,24 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Сборка статистики флаша слушателем менеджера push-уведомлений
+ */
+@Name("resto.push.FlushAggregation")
+@Label("Push Flush Aggregation")
+@Category({"Resto", "Push"})
+public class PushFlushAggregationEvent extends Event {
+
+    @Label("Revision")
+    public int revision;
+
+    @Label("Class Count")
+    public int classCount;
+
+    @Label("Entity Count")
+    public int entityCount;
+}
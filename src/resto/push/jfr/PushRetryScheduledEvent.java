@@ -0,0 +1,32 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Повторная попытка уведомления поставлена в расписание
+ */
+@Name("resto.push.RetryScheduled")
+@Label("Push Retry Scheduled")
+@Category({"Resto", "Push"})
+public class PushRetryScheduledEvent extends Event {
+
+    @Label("Subscriber Alias")
+    public String subscriberAlias;
+
+    @Label("Revision From")
+    public int revisionFrom;
+
+    @Label("Revision To")
+    public int revisionTo;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    public long delay;
+}
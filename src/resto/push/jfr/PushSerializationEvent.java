@@ -0,0 +1,23 @@
+package resto.push.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Сериализация и запись body уведомления
+ */
+@Name("resto.push.Serialization")
+@Label("Push Serialization")
+@Category({"Resto", "Push"})
+public class PushSerializationEvent extends Event {
+
+    @Label("Subscriber Alias")
+    public String subscriberAlias;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
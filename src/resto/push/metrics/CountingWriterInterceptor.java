@@ -0,0 +1,46 @@
+package resto.push.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import resto.push.jfr.PushSerializationEvent;
+
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Считает байты body, отправленные http-клиентом уведомителя, и время их сериализации и записи
+ */
+public class CountingWriterInterceptor implements WriterInterceptor {
+
+    @NotNull
+    private final PushNotifierMetrics metrics;
+
+    @NotNull
+    private final String subscriberAlias;
+
+    public CountingWriterInterceptor(@NotNull PushNotifierMetrics metrics, @NotNull String subscriberAlias) {
+        this.metrics = metrics;
+        this.subscriberAlias = subscriberAlias;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        CountingOutputStream counting = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(counting);
+        PushSerializationEvent event = new PushSerializationEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+        try {
+            context.proceed();
+        } finally {
+            metrics.recordSerialization(System.nanoTime() - startNanos);
+            metrics.addBytesSent(counting.getCount());
+            event.end();
+            if (event.shouldCommit()) {
+                event.subscriberAlias = subscriberAlias;
+                event.bytes = counting.getCount();
+                event.commit();
+            }
+        }
+    }
+}
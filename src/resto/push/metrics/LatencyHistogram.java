@@ -0,0 +1,125 @@
+package resto.push.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек с логарифмическими корзинами (по образцу HdrHistogram).
+ * <p>
+ * Каждая степень двойки делится на {@link #SUB_BUCKETS} равных корзин, поэтому относительная погрешность
+ * перцентилей не превышает 1/16. Значения до 2^41 нс (~36 минут) хранятся точно, большие попадают в последнюю
+ * корзину. Запись не выделяет память и не берет блокировок.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Записываем значение (в наносекундах)
+     */
+    public void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // повторяем, пока не обновим максимум
+        }
+    }
+
+    /**
+     * Значение, не превышаемое заданной долей записей.
+     *
+     * @param percentile - перцентиль от 0 до 100
+     *
+     * @return верхняя граница корзины, в которую попал перцентиль, или 0, если записей нет
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= target) {
+                return Math.min(highestValueOf(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    public long getMaxValue() {
+        return maxValue.get();
+    }
+
+    /**
+     * Уменьшаем вес накопленных записей вдвое, чтобы гистограмма отражала недавнее поведение.
+     * Записи, идущие параллельно с уменьшением, могут быть учтены неточно, что для оценки задержек допустимо.
+     */
+    public void decay() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long halved = counts.get(i) >> 1;
+            counts.set(i, halved);
+            total += halved;
+        }
+        totalCount.set(total);
+        maxValue.set(total == 0 ? 0 : highestNonEmptyValue());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        maxValue.set(0);
+    }
+
+    private long highestNonEmptyValue() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * bucketWidth + bucketWidth - 1;
+    }
+}
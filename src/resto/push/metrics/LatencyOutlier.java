@@ -0,0 +1,61 @@
+package resto.push.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Date;
+
+/**
+ * Доставка, задержка которой от флаша до подтверждения подписчиком превысила p99
+ */
+public class LatencyOutlier {
+
+    @NotNull
+    private final Date date;
+
+    private final int revisionFrom;
+
+    private final int revisionTo;
+
+    private final long sequenceNumber;
+
+    private final double endToEndMillis;
+
+    private final int attempts;
+
+    public LatencyOutlier(int revisionFrom, int revisionTo, long sequenceNumber, double endToEndMillis, int attempts) {
+        this.date = new Date();
+        this.revisionFrom = revisionFrom;
+        this.revisionTo = revisionTo;
+        this.sequenceNumber = sequenceNumber;
+        this.endToEndMillis = endToEndMillis;
+        this.attempts = attempts;
+    }
+
+    @NotNull
+    public Date getDate() {
+        return date;
+    }
+
+    public int getRevisionFrom() {
+        return revisionFrom;
+    }
+
+    public int getRevisionTo() {
+        return revisionTo;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public double getEndToEndMillis() {
+        return endToEndMillis;
+    }
+
+    /**
+     * Количество неудачных попыток перед доставкой
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+}
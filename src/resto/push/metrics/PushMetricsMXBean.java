@@ -0,0 +1,43 @@
+package resto.push.metrics;
+
+import resto.push.delivery.HostConcurrencyLimiter;
+
+import java.util.List;
+
+/**
+ * JMX-интерфейс метрик push-уведомлений
+ */
+public interface PushMetricsMXBean {
+
+    String OBJECT_NAME = "resto.push:type=PushMetrics";
+
+    int getDeliveryWorkers();
+
+    int getMaxDeliveryWorkers();
+
+    /**
+     * Доля занятых потоков доставки
+     */
+    double getDeliveryPoolUtilization();
+
+    int getQueuedDeliveries();
+
+    long getFlushes();
+
+    double getFlushListenerP50Millis();
+
+    double getFlushListenerP99Millis();
+
+    double getFlushListenerMaxMillis();
+
+    /**
+     * Бюджет памяти под недоставленную статистику (0 - без ограничения)
+     */
+    long getMemoryBudgetBytes();
+
+    long getMemoryUsedBytes();
+
+    List<PushNotifierMetricsSnapshot> getNotifiers();
+
+    List<HostConcurrencyLimiter.HostLimitState> getHostLimits();
+}
@@ -0,0 +1,132 @@
+package resto.push.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import resto.push.PushMemoryBudget;
+import resto.push.delivery.HostConcurrencyLimiter;
+import resto.push.delivery.PushDeliveryScheduler;
+import resto.utils.log4j.RestoLogger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Реестр метрик push-уведомлений: общие метрики менеджера и снимки метрик уведомителей.
+ * Доступен через {@link resto.push.PushNotificationManager#getMetrics()} и JMX ({@link #OBJECT_NAME}).
+ */
+public class PushMetricsRegistry implements PushMetricsMXBean {
+
+    private static final RestoLogger LOG = RestoLogger.getLogger(PushMetricsRegistry.class);
+
+    @NotNull
+    private final PushDeliveryScheduler deliveryScheduler;
+
+    @NotNull
+    private final HostConcurrencyLimiter hostLimiter;
+
+    @NotNull
+    private final PushMemoryBudget memoryBudget;
+
+    @NotNull
+    private final Supplier<List<PushNotifierMetricsSnapshot>> notifierMetrics;
+
+    /**
+     * Длительность обработки флаша слушателем (в наносекундах)
+     */
+    @NotNull
+    private final LatencyHistogram flushListenerLatency = new LatencyHistogram();
+
+    public PushMetricsRegistry(
+        @NotNull PushDeliveryScheduler deliveryScheduler,
+        @NotNull HostConcurrencyLimiter hostLimiter,
+        @NotNull PushMemoryBudget memoryBudget,
+        @NotNull Supplier<List<PushNotifierMetricsSnapshot>> notifierMetrics
+    ) {
+        this.deliveryScheduler = deliveryScheduler;
+        this.hostLimiter = hostLimiter;
+        this.memoryBudget = memoryBudget;
+        this.notifierMetrics = notifierMetrics;
+    }
+
+    /**
+     * Регистрируем реестр в JMX. Ошибка регистрации не мешает работе уведомлений.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOG.warn.format(e, "Can't register push notification metrics MBean");
+        }
+    }
+
+    public void recordFlushListener(long nanos) {
+        flushListenerLatency.record(nanos);
+    }
+
+    @Override
+    public int getDeliveryWorkers() {
+        return deliveryScheduler.getRunningWorkers();
+    }
+
+    @Override
+    public int getMaxDeliveryWorkers() {
+        return deliveryScheduler.getMaxWorkers();
+    }
+
+    @Override
+    public double getDeliveryPoolUtilization() {
+        return (double) deliveryScheduler.getRunningWorkers() / deliveryScheduler.getMaxWorkers();
+    }
+
+    @Override
+    public int getQueuedDeliveries() {
+        return deliveryScheduler.getQueuedTasks();
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushListenerLatency.getTotalCount();
+    }
+
+    @Override
+    public double getFlushListenerP50Millis() {
+        return PushNotifierMetricsSnapshot.toMillis(flushListenerLatency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public double getFlushListenerP99Millis() {
+        return PushNotifierMetricsSnapshot.toMillis(flushListenerLatency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public double getFlushListenerMaxMillis() {
+        return PushNotifierMetricsSnapshot.toMillis(flushListenerLatency.getMaxValue());
+    }
+
+    @Override
+    public long getMemoryBudgetBytes() {
+        return Math.max(memoryBudget.getMaxBytes(), 0);
+    }
+
+    @Override
+    public long getMemoryUsedBytes() {
+        return memoryBudget.getUsedBytes();
+    }
+
+    @Override
+    public List<PushNotifierMetricsSnapshot> getNotifiers() {
+        return notifierMetrics.get();
+    }
+
+    @Override
+    public List<HostConcurrencyLimiter.HostLimitState> getHostLimits() {
+        return hostLimiter.getState();
+    }
+}
@@ -0,0 +1,261 @@
+package resto.push.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики одного уведомителя. Запись не выделяет память и не берет блокировок.
+ *
+ * @see resto.push.PushSubscriberNotifier
+ */
+public class PushNotifierMetrics {
+
+    private static final int MAX_OUTLIERS = 16;
+
+    /**
+     * Сколько доставок нужно, чтобы p99 был осмысленным для поиска выбросов
+     */
+    private static final int MIN_OUTLIER_SAMPLES = 100;
+
+    /**
+     * Длительность запросов к подписчику (в наносекундах)
+     */
+    @NotNull
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    /**
+     * Сборка статистики флаша слушателем менеджера
+     */
+    @NotNull
+    private final LatencyHistogram aggregationLatency = new LatencyHistogram();
+
+    /**
+     * Ожидание статистики флаша в очереди уведомителя до сборки пакета
+     */
+    @NotNull
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+
+    /**
+     * Сериализация и запись body запроса
+     */
+    @NotNull
+    private final LatencyHistogram serializationLatency = new LatencyHistogram();
+
+    /**
+     * От флаша до подтверждения подписчиком. Для пакета из нескольких флашей считается от самого раннего,
+     * т.е. это худшая задержка ревизий пакета.
+     */
+    @NotNull
+    private final LatencyHistogram endToEndLatency = new LatencyHistogram();
+
+    /**
+     * Последние доставки с задержкой выше p99
+     */
+    private final ArrayDeque<LatencyOutlier> outliers = new ArrayDeque<>(MAX_OUTLIERS);
+
+    private final LongAdder successResponses = new LongAdder();
+
+    private final LongAdder errorResponses = new LongAdder();
+
+    private final LongAdder stopResponses = new LongAdder();
+
+    /**
+     * Неудачные запросы: таймауты, ошибки соединения, не 2xx ответы
+     */
+    private final LongAdder failedRequests = new LongAdder();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    /**
+     * Количество статистик флашей в очереди уведомителя
+     */
+    private final AtomicInteger pendingStatistics = new AtomicInteger();
+
+    /**
+     * Оценка памяти, занятой статистиками в очереди уведомителя (в байтах)
+     *
+     * @see resto.push.PushMemoryBudget
+     */
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    /**
+     * Сколько раз очередь схлопывалась в признак пересинхронизации из-за бюджета памяти
+     */
+    private final LongAdder resyncs = new LongAdder();
+
+    /**
+     * Момент последнего продвижения переданной ревизии
+     */
+    private volatile long lastRevisionAdvancedMillis = System.currentTimeMillis();
+
+    public void recordRequest(long roundTripNanos, boolean acknowledged) {
+        deliveryLatency.record(roundTripNanos);
+        if (!acknowledged) {
+            failedRequests.increment();
+        }
+    }
+
+    public void recordSuccessResponse() {
+        successResponses.increment();
+    }
+
+    public void recordErrorResponse() {
+        errorResponses.increment();
+    }
+
+    public void recordStopResponse() {
+        stopResponses.increment();
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void onStatisticQueued(long bytes) {
+        pendingStatistics.incrementAndGet();
+        pendingBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Статистика флаша забрана из очереди в пакет
+     *
+     * @param bytes           - оценка памяти статистики
+     * @param flushNanos      - момент, когда флаш увидел слушатель (0 - неизвестен)
+     * @param aggregatedNanos - момент окончания сборки статистики флаша
+     * @param collectedNanos  - момент сборки пакета
+     */
+    public void onStatisticDrained(long bytes, long flushNanos, long aggregatedNanos, long collectedNanos) {
+        pendingStatistics.decrementAndGet();
+        pendingBytes.addAndGet(-bytes);
+        if (flushNanos != 0) {
+            aggregationLatency.record(aggregatedNanos - flushNanos);
+            queueLatency.record(collectedNanos - aggregatedNanos);
+        }
+    }
+
+    public void recordSerialization(long nanos) {
+        serializationLatency.record(nanos);
+    }
+
+    /**
+     * Пакет подтвержден подписчиком
+     *
+     * @param flushNanos     - момент самого раннего флаша пакета (0 - неизвестен)
+     * @param revisionFrom   - начало диапазона ревизий пакета
+     * @param revisionTo     - конец диапазона ревизий пакета
+     * @param sequenceNumber - номер доставки
+     * @param attempts       - количество неудачных попыток перед доставкой
+     */
+    public void recordAcknowledged(long flushNanos, int revisionFrom, int revisionTo, long sequenceNumber,
+        int attempts) {
+        if (flushNanos == 0) {
+            return;
+        }
+        long endToEndNanos = System.nanoTime() - flushNanos;
+        if (endToEndLatency.getTotalCount() >= MIN_OUTLIER_SAMPLES
+            && endToEndNanos > endToEndLatency.getValueAtPercentile(99)) {
+            LatencyOutlier outlier = new LatencyOutlier(revisionFrom, revisionTo, sequenceNumber,
+                PushNotifierMetricsSnapshot.toMillis(endToEndNanos), attempts);
+            synchronized (outliers) {
+                if (outliers.size() == MAX_OUTLIERS) {
+                    outliers.pollFirst();
+                }
+                outliers.addLast(outlier);
+            }
+        }
+        endToEndLatency.record(endToEndNanos);
+    }
+
+    /**
+     * Статистики отброшены из очереди без отправки
+     *
+     * @param count - количество статистик
+     * @param bytes - оценка их памяти
+     */
+    public void onStatisticsDiscarded(int count, long bytes) {
+        pendingStatistics.addAndGet(-count);
+        pendingBytes.addAndGet(-bytes);
+    }
+
+    public void onResync() {
+        resyncs.increment();
+    }
+
+    public void onRevisionAdvanced() {
+        lastRevisionAdvancedMillis = System.currentTimeMillis();
+    }
+
+    @NotNull
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getAggregationLatency() {
+        return aggregationLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getQueueLatency() {
+        return queueLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getSerializationLatency() {
+        return serializationLatency;
+    }
+
+    @NotNull
+    public LatencyHistogram getEndToEndLatency() {
+        return endToEndLatency;
+    }
+
+    @NotNull
+    public List<LatencyOutlier> getOutliers() {
+        synchronized (outliers) {
+            return new ArrayList<>(outliers);
+        }
+    }
+
+    public long getSuccessResponses() {
+        return successResponses.sum();
+    }
+
+    public long getErrorResponses() {
+        return errorResponses.sum();
+    }
+
+    public long getStopResponses() {
+        return stopResponses.sum();
+    }
+
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public int getPendingStatistics() {
+        return pendingStatistics.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public long getResyncs() {
+        return resyncs.sum();
+    }
+
+    public long getLastRevisionAdvancedMillis() {
+        return lastRevisionAdvancedMillis;
+    }
+}
@@ -0,0 +1,193 @@
+package resto.push.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Снимок метрик уведомителя для API и JMX
+ */
+public class PushNotifierMetricsSnapshot {
+
+    @NotNull
+    private final String subscriberAlias;
+
+    @NotNull
+    private final String status;
+
+    private final long requests;
+
+    private final double deliveryP50Millis;
+
+    private final double deliveryP99Millis;
+
+    private final double deliveryMaxMillis;
+
+    private final double aggregationP99Millis;
+
+    private final double queueP99Millis;
+
+    private final double serializationP99Millis;
+
+    private final double endToEndP50Millis;
+
+    private final double endToEndP99Millis;
+
+    @NotNull
+    private final List<LatencyOutlier> outliers;
+
+    private final long successResponses;
+
+    private final long errorResponses;
+
+    private final long stopResponses;
+
+    private final long failedRequests;
+
+    private final long bytesSent;
+
+    private final int pendingStatistics;
+
+    private final long pendingBytes;
+
+    private final long resyncs;
+
+    private final int pendingClasses;
+
+    private final int lastRevisionTo;
+
+    private final long millisSinceRevisionAdvanced;
+
+    public PushNotifierMetricsSnapshot(
+        @NotNull String subscriberAlias,
+        @NotNull String status,
+        @NotNull PushNotifierMetrics metrics,
+        int pendingClasses,
+        int lastRevisionTo
+    ) {
+        this.subscriberAlias = subscriberAlias;
+        this.status = status;
+        LatencyHistogram latency = metrics.getDeliveryLatency();
+        this.requests = latency.getTotalCount();
+        this.deliveryP50Millis = toMillis(latency.getValueAtPercentile(50));
+        this.deliveryP99Millis = toMillis(latency.getValueAtPercentile(99));
+        this.deliveryMaxMillis = toMillis(latency.getMaxValue());
+        this.aggregationP99Millis = toMillis(metrics.getAggregationLatency().getValueAtPercentile(99));
+        this.queueP99Millis = toMillis(metrics.getQueueLatency().getValueAtPercentile(99));
+        this.serializationP99Millis = toMillis(metrics.getSerializationLatency().getValueAtPercentile(99));
+        this.endToEndP50Millis = toMillis(metrics.getEndToEndLatency().getValueAtPercentile(50));
+        this.endToEndP99Millis = toMillis(metrics.getEndToEndLatency().getValueAtPercentile(99));
+        this.outliers = metrics.getOutliers();
+        this.successResponses = metrics.getSuccessResponses();
+        this.errorResponses = metrics.getErrorResponses();
+        this.stopResponses = metrics.getStopResponses();
+        this.failedRequests = metrics.getFailedRequests();
+        this.bytesSent = metrics.getBytesSent();
+        this.pendingStatistics = metrics.getPendingStatistics();
+        this.pendingBytes = metrics.getPendingBytes();
+        this.resyncs = metrics.getResyncs();
+        this.pendingClasses = pendingClasses;
+        this.lastRevisionTo = lastRevisionTo;
+        this.millisSinceRevisionAdvanced = System.currentTimeMillis() - metrics.getLastRevisionAdvancedMillis();
+    }
+
+    static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @NotNull
+    public String getSubscriberAlias() {
+        return subscriberAlias;
+    }
+
+    @NotNull
+    public String getStatus() {
+        return status;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public double getDeliveryP50Millis() {
+        return deliveryP50Millis;
+    }
+
+    public double getDeliveryP99Millis() {
+        return deliveryP99Millis;
+    }
+
+    public double getDeliveryMaxMillis() {
+        return deliveryMaxMillis;
+    }
+
+    public double getAggregationP99Millis() {
+        return aggregationP99Millis;
+    }
+
+    public double getQueueP99Millis() {
+        return queueP99Millis;
+    }
+
+    public double getSerializationP99Millis() {
+        return serializationP99Millis;
+    }
+
+    public double getEndToEndP50Millis() {
+        return endToEndP50Millis;
+    }
+
+    public double getEndToEndP99Millis() {
+        return endToEndP99Millis;
+    }
+
+    @NotNull
+    public List<LatencyOutlier> getOutliers() {
+        return outliers;
+    }
+
+    public long getSuccessResponses() {
+        return successResponses;
+    }
+
+    public long getErrorResponses() {
+        return errorResponses;
+    }
+
+    public long getStopResponses() {
+        return stopResponses;
+    }
+
+    public long getFailedRequests() {
+        return failedRequests;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public int getPendingStatistics() {
+        return pendingStatistics;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    public int getPendingClasses() {
+        return pendingClasses;
+    }
+
+    public int getLastRevisionTo() {
+        return lastRevisionTo;
+    }
+
+    public long getMillisSinceRevisionAdvanced() {
+        return millisSinceRevisionAdvanced;
+    }
+}
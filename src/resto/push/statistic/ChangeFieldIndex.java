@@ -0,0 +1,96 @@
+package resto.push.statistic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Битовые индексы полей, на которые есть подписки, отдельно для каждого класса.
+ * <p>
+ * Индекс получают только поля из подписок на класс, поэтому 63 бит на класс хватает на практике. Поля класса сверх
+ * этого делят последний бит: подписчик на такое поле получит и изменения других полей с этим битом, но не пропустит
+ * ни одного своего. Маски разных классов не сравниваются между собой. Индексы не переиспользуются до перезапуска
+ * сервера.
+ */
+public final class ChangeFieldIndex {
+
+    /**
+     * Маска изменения, поля которого неизвестны. Совпадает с любой подпиской.
+     */
+    public static final long ALL_FIELDS = -1L;
+
+    private static final int OVERFLOW_BIT = 63;
+
+    private static final Map<String, ClassFields> CLASS_FIELDS = new ConcurrentHashMap<>();
+
+    private ChangeFieldIndex() {
+    }
+
+    /**
+     * Маска подписки на поля класса. Поля, которых еще нет в индексе класса, регистрируются.
+     */
+    public static long getSubscriptionMask(@NotNull String className, @NotNull Collection<String> fieldNames) {
+        ClassFields classFields = CLASS_FIELDS.computeIfAbsent(className, name -> new ClassFields());
+        long mask = 0;
+        for (String fieldName : fieldNames) {
+            mask |= 1L << classFields.register(fieldName);
+        }
+        return mask;
+    }
+
+    /**
+     * Маска измененных полей объекта класса. Поля без подписок не учитываются.
+     *
+     * @param dirtyFields - измененные поля или null, если они неизвестны
+     */
+    public static long getChangeMask(@NotNull String className, @Nullable Collection<String> dirtyFields) {
+        if (dirtyFields == null) {
+            return ALL_FIELDS;
+        }
+        ClassFields classFields = CLASS_FIELDS.get(className);
+        if (classFields == null) {
+            return 0;
+        }
+        long mask = 0;
+        for (String fieldName : dirtyFields) {
+            Integer index = classFields.indexes.get(fieldName);
+            if (index != null) {
+                mask |= 1L << index;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Есть ли подписки на поля класса. Если нет, измененные поля его объектов при сборке статистики не
+     * запрашиваются.
+     */
+    public static boolean hasFields(@NotNull String className) {
+        return CLASS_FIELDS.containsKey(className);
+    }
+
+    /**
+     * Есть ли подписки на поля хотя бы одного класса
+     */
+    public static boolean isEmpty() {
+        return CLASS_FIELDS.isEmpty();
+    }
+
+    /**
+     * Индексы подписанных полей одного класса
+     */
+    private static class ClassFields {
+
+        private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+
+        private final AtomicInteger nextIndex = new AtomicInteger();
+
+        private int register(@NotNull String fieldName) {
+            return indexes.computeIfAbsent(fieldName, name -> Math.min(nextIndex.getAndIncrement(), OVERFLOW_BIT));
+        }
+    }
+}
@@ -8,16 +8,28 @@ import resto.push.configuration.PushSubscriberConfiguration;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Статистика изменений между ревизиями
  */
 @XmlAccessorType(XmlAccessType.NONE)
 public class ChangeStatistic {
+
+    /**
+     * Оценка размера объекта в куче без статистики по классам (в байтах)
+     */
+    private static final int HEAP_SIZE_ESTIMATE = 160;
+
     /**
      * Номер ревизии
      */
@@ -47,6 +59,20 @@ public class ChangeStatistic {
     @XmlElement
     private UUID instanceId;
 
+    /**
+     * Порядковый номер доставки в рамках конфигурации и запуска сервера.
+     * Присваивается один раз при подготовке пакета к отправке и не меняется при повторных попытках.
+     */
+    @XmlElement
+    private long sequenceNumber;
+
+    /**
+     * Ключ идемпотентности доставки. Одинаков для всех повторных попыток отправки одного пакета.
+     */
+    @XmlElement
+    @Nullable
+    private UUID deliveryId;
+
     /**
      * Статистика в разрезе по классам
      */
@@ -54,6 +80,37 @@ public class ChangeStatistic {
     @NotNull
     private Map<String, ChangeStatisticItem> classStatistics;
 
+    /**
+     * Ревизия, после которой часть изменений не была сохранена (превышен бюджет памяти уведомлений). Подписчик
+     * должен заново перечитать все данные, измененные после нее. null - статистика полная.
+     */
+    @XmlElement
+    @Nullable
+    private Integer resyncSinceRevision;
+
+    /**
+     * Пакет - снимок: в created классов количества существующих объектов на ревизию revisionTo
+     */
+    @XmlElement
+    private boolean snapshot;
+
+    /**
+     * Момент, когда флаш увидел слушатель менеджера (System.nanoTime).
+     * Для собранного пакета - самый ранний флаш в пакете, 0 - флашей не было.
+     */
+    private long flushNanos;
+
+    /**
+     * Момент окончания сборки статистики флаша (System.nanoTime)
+     */
+    private long aggregatedNanos;
+
+    /**
+     * Количество очередей уведомителей, в которых лежит статистика флаша. Одна статистика флаша раздается всем
+     * уведомителям, поэтому в бюджете памяти она учитывается один раз, пока лежит хотя бы в одной очереди.
+     */
+    private final AtomicInteger queueHolders = new AtomicInteger();
+
     public ChangeStatistic(@NotNull Guid configurationId, @NotNull Guid instanceId) {
         this.configurationId = Guid.toUUID(configurationId);
         this.instanceId = Guid.toUUID(instanceId);
@@ -71,6 +128,42 @@ public class ChangeStatistic {
             .append(statisticItem);
     }
 
+    /**
+     * Добавляем статистику класса вместе с id объектов
+     *
+     * @see ChangeStatisticItem#append(ChangeStatisticItem, int)
+     */
+    public void append(@NotNull ChangeStatisticItem statisticItem, int maxEntityIds) {
+        classStatistics.computeIfAbsent(statisticItem.getEntityClassName(),
+            className -> new ChangeStatisticItem(statisticItem.getEntityClassName()))
+            .append(statisticItem, maxEntityIds);
+    }
+
+    /**
+     * Запоминаем моменты обработки флаша слушателем менеджера
+     */
+    public void setFlushTiming(long flushNanos, long aggregatedNanos) {
+        this.flushNanos = flushNanos;
+        this.aggregatedNanos = aggregatedNanos;
+    }
+
+    /**
+     * Учитываем время флаша, статистика которого вошла в пакет
+     */
+    public void trackFlush(@NotNull ChangeStatistic flushStatistic) {
+        if (flushStatistic.flushNanos != 0 && (flushNanos == 0 || flushStatistic.flushNanos < flushNanos)) {
+            flushNanos = flushStatistic.flushNanos;
+        }
+    }
+
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    public long getAggregatedNanos() {
+        return aggregatedNanos;
+    }
+
     @NotNull
     public Map<String, ChangeStatisticItem> getClassStatistics() {
         return Collections.unmodifiableMap(classStatistics);
@@ -92,6 +185,72 @@ public class ChangeStatistic {
         this.revisionTo = revisionTo;
     }
 
+    @Nullable
+    public Integer getResyncSinceRevision() {
+        return resyncSinceRevision;
+    }
+
+    public void setResyncSinceRevision(@Nullable Integer resyncSinceRevision) {
+        this.resyncSinceRevision = resyncSinceRevision;
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Статистика поставлена в очередь уведомителя
+     *
+     * @return это первая очередь: память статистики нужно учесть в бюджете
+     */
+    public boolean onQueued() {
+        return queueHolders.getAndIncrement() == 0;
+    }
+
+    /**
+     * Статистика забрана из очереди уведомителя или отброшена
+     *
+     * @return это была последняя очередь: память статистики нужно освободить в бюджете
+     */
+    public boolean onDequeued() {
+        return queueHolders.decrementAndGet() == 0;
+    }
+
+    /**
+     * Оценка занимаемой в куче памяти (в байтах)
+     */
+    public long getEstimatedHeapBytes() {
+        long bytes = HEAP_SIZE_ESTIMATE;
+        for (ChangeStatisticItem item : classStatistics.values()) {
+            bytes += item.getEstimatedHeapBytes();
+        }
+        return bytes;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Nullable
+    public UUID getDeliveryId() {
+        return deliveryId;
+    }
+
+    /**
+     * Фиксирует номер доставки и ключ идемпотентности пакета.
+     *
+     * @param sequenceNumber - порядковый номер доставки
+     */
+    public void assignDelivery(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+        this.deliveryId = UUID.nameUUIDFromBytes(
+            (instanceId + ":" + configurationId + ":" + sequenceNumber).getBytes(StandardCharsets.UTF_8));
+    }
+
     @Nullable
     public UUID getConfigurationId() {
         return configurationId;
@@ -101,10 +260,140 @@ public class ChangeStatistic {
         return instanceId;
     }
 
+    /**
+     * Представление пакета только для чтения. Ничего не копируется: представление читает сам пакет, статистика
+     * классов оборачивается при обращении к ней.
+     */
+    @NotNull
+    public ChangeStatisticView asReadOnly() {
+        return new ReadOnlyView(this);
+    }
+
     @Override
     public String toString() {
         return "ChangeStatistic@" + System.identityHashCode(this) + '{' +
                "classes: " + classStatistics.size() +
-               ", revisionTo: " + revisionTo + '}';
+               ", revisionTo: " + revisionTo +
+               ", sequenceNumber: " + sequenceNumber + '}';
+    }
+
+    /**
+     * Пакет без возможности изменения
+     */
+    private static class ReadOnlyView implements ChangeStatisticView {
+
+        @NotNull
+        private final ChangeStatistic statistic;
+
+        private ReadOnlyView(@NotNull ChangeStatistic statistic) {
+            this.statistic = statistic;
+        }
+
+        @Override
+        public int getRevisionFrom() {
+            return statistic.revisionFrom;
+        }
+
+        @Override
+        public int getRevisionTo() {
+            return statistic.revisionTo;
+        }
+
+        @Nullable
+        @Override
+        public Integer getResyncSinceRevision() {
+            return statistic.resyncSinceRevision;
+        }
+
+        @Override
+        public boolean isSnapshot() {
+            return statistic.snapshot;
+        }
+
+        @Override
+        public long getSequenceNumber() {
+            return statistic.sequenceNumber;
+        }
+
+        @Nullable
+        @Override
+        public UUID getDeliveryId() {
+            return statistic.deliveryId;
+        }
+
+        @Nullable
+        @Override
+        public UUID getConfigurationId() {
+            return statistic.configurationId;
+        }
+
+        @Override
+        public UUID getInstanceId() {
+            return statistic.instanceId;
+        }
+
+        @NotNull
+        @Override
+        public Map<String, ChangeStatisticItemView> getClassStatistics() {
+            return new ReadOnlyItems(statistic.classStatistics);
+        }
+    }
+
+    /**
+     * Статистика классов без возможности изменения. Статистика класса оборачивается при чтении.
+     */
+    private static class ReadOnlyItems extends AbstractMap<String, ChangeStatisticItemView> {
+
+        @NotNull
+        private final Map<String, ChangeStatisticItem> items;
+
+        private ReadOnlyItems(@NotNull Map<String, ChangeStatisticItem> items) {
+            this.items = items;
+        }
+
+        @Override
+        public int size() {
+            return items.size();
+        }
+
+        @Override
+        public boolean containsKey(Object className) {
+            return items.containsKey(className);
+        }
+
+        @Override
+        public ChangeStatisticItemView get(Object className) {
+            ChangeStatisticItem item = items.get(className);
+            return item == null ? null : item.asReadOnly();
+        }
+
+        @NotNull
+        @Override
+        public Set<Entry<String, ChangeStatisticItemView>> entrySet() {
+            return new AbstractSet<Entry<String, ChangeStatisticItemView>>() {
+                @Override
+                public int size() {
+                    return items.size();
+                }
+
+                @NotNull
+                @Override
+                public Iterator<Entry<String, ChangeStatisticItemView>> iterator() {
+                    Iterator<Entry<String, ChangeStatisticItem>> iterator = items.entrySet().iterator();
+                    return new Iterator<Entry<String, ChangeStatisticItemView>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, ChangeStatisticItemView> next() {
+                            Entry<String, ChangeStatisticItem> entry = iterator.next();
+                            return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().asReadOnly());
+                        }
+                    };
+                }
+            };
+        }
     }
-}
\ No newline at end of file
+}
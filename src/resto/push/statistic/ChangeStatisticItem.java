@@ -1,10 +1,13 @@
 package resto.push.statistic;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+import java.util.Arrays;
 
 /**
  * Статистика изменений в разрезе одного класса
@@ -12,6 +15,16 @@ import javax.xml.bind.annotation.XmlElement;
 @XmlAccessorType(XmlAccessType.FIELD)
 public class ChangeStatisticItem {
 
+    /**
+     * Оценка размера объекта в куче вместе с элементом карты статистики (в байтах)
+     */
+    private static final int HEAP_SIZE_ESTIMATE = 120;
+
+    /**
+     * Размер одного id объекта в куче (в байтах)
+     */
+    private static final int ENTITY_ID_HEAP_SIZE = 16;
+
     /**
      * Имя класса
      *
@@ -40,10 +53,48 @@ public class ChangeStatisticItem {
     @XmlElement
     private int deleted;
 
+    /**
+     * Различные маски измененных полей среди обновлений ({@link ChangeFieldIndex}) и количество обновлений
+     * с каждой маской. Обновления без маски считаются затронувшими все поля. Заполняется при сборке статистики
+     * флаша, если есть подписки на поля.
+     */
+    @XmlTransient
+    @Nullable
+    private long[] updateMasks;
+
+    @XmlTransient
+    @Nullable
+    private int[] updateMaskCounts;
+
+    @XmlTransient
+    private int updateMaskSize;
+
+    /**
+     * Id созданных, обновленных и удаленных объектов. null - id не собирались.
+     */
+    @XmlTransient
+    @Nullable
+    private EntityIdSet createdIds;
+
+    @XmlTransient
+    @Nullable
+    private EntityIdSet updatedIds;
+
+    @XmlTransient
+    @Nullable
+    private EntityIdSet deletedIds;
+
     public ChangeStatisticItem(@NotNull String entityClassName) {
         this.entityClassName = entityClassName;
     }
 
+    public ChangeStatisticItem(@NotNull String entityClassName, int created, int updated, int deleted) {
+        this.entityClassName = entityClassName;
+        this.created = created;
+        this.updated = updated;
+        this.deleted = deleted;
+    }
+
     public void incCreated() {
         created++;
     }
@@ -52,6 +103,90 @@ public class ChangeStatisticItem {
         updated++;
     }
 
+    /**
+     * @param fieldMask - маска измененных полей объекта
+     */
+    public void incUpdated(long fieldMask) {
+        updated++;
+        if (fieldMask == ChangeFieldIndex.ALL_FIELDS) {
+            return;
+        }
+        for (int i = 0; i < updateMaskSize; i++) {
+            if (updateMasks[i] == fieldMask) {
+                updateMaskCounts[i]++;
+                return;
+            }
+        }
+        if (updateMasks == null) {
+            updateMasks = new long[4];
+            updateMaskCounts = new int[4];
+        } else if (updateMaskSize == updateMasks.length) {
+            updateMasks = Arrays.copyOf(updateMasks, updateMaskSize * 2);
+            updateMaskCounts = Arrays.copyOf(updateMaskCounts, updateMaskSize * 2);
+        }
+        updateMasks[updateMaskSize] = fieldMask;
+        updateMaskCounts[updateMaskSize] = 1;
+        updateMaskSize++;
+    }
+
+    /**
+     * Количество обновлений, затронувших поля из маски
+     *
+     * @param subscriptionMask - маска подписанных полей ({@link ChangeFieldIndex#ALL_FIELDS} - любые поля)
+     */
+    public int getUpdated(long subscriptionMask) {
+        if (subscriptionMask == ChangeFieldIndex.ALL_FIELDS) {
+            return updated;
+        }
+        int matched = updated;
+        for (int i = 0; i < updateMaskSize; i++) {
+            if ((updateMasks[i] & subscriptionMask) == 0) {
+                matched -= updateMaskCounts[i];
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Количество изменений заданных типов (обновления - только затронувшие поля из маски)
+     */
+    public int getChangedCount(boolean withCreated, boolean withUpdated, boolean withDeleted, long fieldMask) {
+        return (withCreated ? created : 0) + (withUpdated ? getUpdated(fieldMask) : 0) + (withDeleted ? deleted : 0);
+    }
+
+    /**
+     * Статистика для подписчика: только изменения заданных типов, обновления - только затронувшие поля из маски.
+     *
+     * @return отфильтрованная статистика (эта же, если фильтр ничего не убрал) или null, если изменений нет
+     */
+    @Nullable
+    public ChangeStatisticItem filter(boolean withCreated, boolean withUpdated, boolean withDeleted, long fieldMask) {
+        int filteredCreated = withCreated ? created : 0;
+        int filteredUpdated = withUpdated ? getUpdated(fieldMask) : 0;
+        int filteredDeleted = withDeleted ? deleted : 0;
+        if (filteredCreated == created && filteredUpdated == updated && filteredDeleted == deleted) {
+            return this;
+        }
+        if (filteredCreated == 0 && filteredUpdated == 0 && filteredDeleted == 0) {
+            return null;
+        }
+        ChangeStatisticItem filtered =
+            new ChangeStatisticItem(entityClassName, filteredCreated, filteredUpdated, filteredDeleted);
+        // Id обновлений не привязаны к маскам полей, поэтому после фильтрации по полям передаем только количество
+        filtered.setEntityIds(
+            filteredCreated == created ? createdIds : emptyIds(createdIds),
+            filteredUpdated == updated ? updatedIds
+                : filteredUpdated == 0 ? emptyIds(updatedIds)
+                : updatedIds == null ? null : EntityIdSet.OVERFLOW,
+            filteredDeleted == deleted ? deletedIds : emptyIds(deletedIds));
+        return filtered;
+    }
+
+    @Nullable
+    private static EntityIdSet emptyIds(@Nullable EntityIdSet ids) {
+        return ids == null ? null : EntityIdSet.EMPTY;
+    }
+
     public void incDeleted() {
         deleted++;
     }
@@ -62,6 +197,59 @@ public class ChangeStatisticItem {
         deleted += changeStatisticItem.deleted;
     }
 
+    /**
+     * Добавляем статистику с объединением id объектов
+     *
+     * @param maxEntityIds - ограничение общего количества id класса, сверх него передаются только количества
+     */
+    public void append(@NotNull ChangeStatisticItem changeStatisticItem, int maxEntityIds) {
+        boolean first = created == 0 && updated == 0 && deleted == 0;
+        append(changeStatisticItem);
+        if (first) {
+            createdIds = orOverflow(changeStatisticItem.createdIds);
+            updatedIds = orOverflow(changeStatisticItem.updatedIds);
+            deletedIds = orOverflow(changeStatisticItem.deletedIds);
+        } else {
+            createdIds = EntityIdSet.union(createdIds, changeStatisticItem.createdIds);
+            updatedIds = EntityIdSet.union(updatedIds, changeStatisticItem.updatedIds);
+            deletedIds = EntityIdSet.union(deletedIds, changeStatisticItem.deletedIds);
+        }
+        if (createdIds.size() + updatedIds.size() + deletedIds.size() > maxEntityIds) {
+            createdIds = EntityIdSet.OVERFLOW;
+            updatedIds = EntityIdSet.OVERFLOW;
+            deletedIds = EntityIdSet.OVERFLOW;
+        }
+    }
+
+    private static EntityIdSet orOverflow(@Nullable EntityIdSet ids) {
+        return ids == null ? EntityIdSet.OVERFLOW : ids;
+    }
+
+    public void setEntityIds(
+        @Nullable EntityIdSet createdIds,
+        @Nullable EntityIdSet updatedIds,
+        @Nullable EntityIdSet deletedIds
+    ) {
+        this.createdIds = createdIds;
+        this.updatedIds = updatedIds;
+        this.deletedIds = deletedIds;
+    }
+
+    @Nullable
+    public EntityIdSet getCreatedIds() {
+        return createdIds;
+    }
+
+    @Nullable
+    public EntityIdSet getUpdatedIds() {
+        return updatedIds;
+    }
+
+    @Nullable
+    public EntityIdSet getDeletedIds() {
+        return deletedIds;
+    }
+
     @NotNull
     public String getEntityClassName() {
         return entityClassName;
@@ -79,6 +267,28 @@ public class ChangeStatisticItem {
         return deleted;
     }
 
+    /**
+     * Статистика класса только для чтения. Ничего не копируется: представление читает саму статистику, множества id
+     * неизменяемы.
+     */
+    @NotNull
+    public ChangeStatisticItemView asReadOnly() {
+        return new ReadOnlyView(this);
+    }
+
+    /**
+     * Оценка занимаемой в куче памяти (в байтах): объект, маски полей и id объектов
+     */
+    public long getEstimatedHeapBytes() {
+        return HEAP_SIZE_ESTIMATE
+               + (updateMasks == null ? 0 : 12L * updateMasks.length)
+               + ENTITY_ID_HEAP_SIZE * ((long) size(createdIds) + size(updatedIds) + size(deletedIds));
+    }
+
+    private static int size(@Nullable EntityIdSet ids) {
+        return ids == null ? 0 : ids.size();
+    }
+
     @Override
     public String toString() {
         return "ChangeStatisticItem@" + System.identityHashCode(this) + '{' +
@@ -88,4 +298,56 @@ public class ChangeStatisticItem {
                 ", deleted: " + deleted +
                 '}';
     }
-}
\ No newline at end of file
+
+    /**
+     * Статистика класса без возможности изменения
+     */
+    private static class ReadOnlyView implements ChangeStatisticItemView {
+
+        @NotNull
+        private final ChangeStatisticItem item;
+
+        private ReadOnlyView(@NotNull ChangeStatisticItem item) {
+            this.item = item;
+        }
+
+        @NotNull
+        @Override
+        public String getEntityClassName() {
+            return item.entityClassName;
+        }
+
+        @Override
+        public int getCreated() {
+            return item.created;
+        }
+
+        @Override
+        public int getUpdated() {
+            return item.updated;
+        }
+
+        @Override
+        public int getDeleted() {
+            return item.deleted;
+        }
+
+        @Nullable
+        @Override
+        public EntityIdSet getCreatedIds() {
+            return item.createdIds;
+        }
+
+        @Nullable
+        @Override
+        public EntityIdSet getUpdatedIds() {
+            return item.updatedIds;
+        }
+
+        @Nullable
+        @Override
+        public EntityIdSet getDeletedIds() {
+            return item.deletedIds;
+        }
+    }
+}
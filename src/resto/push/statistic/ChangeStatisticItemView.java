@@ -0,0 +1,33 @@
+package resto.push.statistic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Статистика изменений одного класса только для чтения
+ *
+ * @see ChangeStatisticView
+ */
+public interface ChangeStatisticItemView {
+
+    @NotNull
+    String getEntityClassName();
+
+    int getCreated();
+
+    int getUpdated();
+
+    int getDeleted();
+
+    /**
+     * Id созданных объектов (null - не собирались)
+     */
+    @Nullable
+    EntityIdSet getCreatedIds();
+
+    @Nullable
+    EntityIdSet getUpdatedIds();
+
+    @Nullable
+    EntityIdSet getDeletedIds();
+}
@@ -0,0 +1,45 @@
+package resto.push.statistic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Пакет изменений только для чтения. Передается подписчику в том же процессе вместо самой статистики, которую
+ * уведомитель продолжает использовать при повторных попытках.
+ *
+ * @see ChangeStatistic#asReadOnly()
+ * @see resto.push.PushChangeListener
+ */
+public interface ChangeStatisticView {
+
+    int getRevisionFrom();
+
+    int getRevisionTo();
+
+    /**
+     * @see ChangeStatistic#getResyncSinceRevision()
+     */
+    @Nullable
+    Integer getResyncSinceRevision();
+
+    boolean isSnapshot();
+
+    long getSequenceNumber();
+
+    @Nullable
+    UUID getDeliveryId();
+
+    @Nullable
+    UUID getConfigurationId();
+
+    UUID getInstanceId();
+
+    /**
+     * Статистика в разрезе по классам, без возможности изменения
+     */
+    @NotNull
+    Map<String, ChangeStatisticItemView> getClassStatistics();
+}
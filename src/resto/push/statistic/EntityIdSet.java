@@ -0,0 +1,145 @@
+package resto.push.statistic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Неизменяемое множество id сущностей. Хранится как упорядоченные массивы старших и младших половин UUID
+ * (16 байт на id), объединение - слиянием упорядоченных массивов с удалением повторов.
+ * <p>
+ * {@link #OVERFLOW} означает, что id не собирались или их больше ограничения: передаются только количества.
+ */
+public final class EntityIdSet {
+
+    public static final EntityIdSet EMPTY = new EntityIdSet(new long[0], new long[0]);
+
+    public static final EntityIdSet OVERFLOW = new EntityIdSet(new long[0], new long[0]);
+
+    private final long[] mostSigBits;
+
+    private final long[] leastSigBits;
+
+    private EntityIdSet(long[] mostSigBits, long[] leastSigBits) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+
+    @NotNull
+    public static EntityIdSet of(@NotNull Collection<UUID> ids) {
+        if (ids.isEmpty()) {
+            return EMPTY;
+        }
+        UUID[] sorted = ids.toArray(new UUID[0]);
+        Arrays.sort(sorted, EntityIdSet::compare);
+        long[] most = new long[sorted.length];
+        long[] least = new long[sorted.length];
+        int size = 0;
+        for (UUID id : sorted) {
+            if (size > 0 && most[size - 1] == id.getMostSignificantBits()
+                && least[size - 1] == id.getLeastSignificantBits()) {
+                continue;
+            }
+            most[size] = id.getMostSignificantBits();
+            least[size] = id.getLeastSignificantBits();
+            size++;
+        }
+        return new EntityIdSet(trim(most, size), trim(least, size));
+    }
+
+    /**
+     * Объединение множеств. Если одно из них переполнено (или неизвестно - null), результат переполнен.
+     */
+    @NotNull
+    public static EntityIdSet union(@Nullable EntityIdSet first, @Nullable EntityIdSet second) {
+        if (first == null || second == null || first == OVERFLOW || second == OVERFLOW) {
+            return OVERFLOW;
+        }
+        if (first.isEmpty()) {
+            return second;
+        }
+        if (second.isEmpty()) {
+            return first;
+        }
+        int capacity = first.size() + second.size();
+        long[] most = new long[capacity];
+        long[] least = new long[capacity];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < first.size() || j < second.size()) {
+            int compare = i == first.size() ? 1
+                : j == second.size() ? -1
+                : compare(first.mostSigBits[i], first.leastSigBits[i], second.mostSigBits[j], second.leastSigBits[j]);
+            if (compare <= 0) {
+                most[size] = first.mostSigBits[i];
+                least[size] = first.leastSigBits[i];
+                i++;
+                if (compare == 0) {
+                    j++;
+                }
+            } else {
+                most[size] = second.mostSigBits[j];
+                least[size] = second.leastSigBits[j];
+                j++;
+            }
+            size++;
+        }
+        return new EntityIdSet(trim(most, size), trim(least, size));
+    }
+
+    public int size() {
+        return mostSigBits.length;
+    }
+
+    public boolean isEmpty() {
+        return this != OVERFLOW && mostSigBits.length == 0;
+    }
+
+    public boolean isOverflow() {
+        return this == OVERFLOW;
+    }
+
+    /**
+     * @return id по возрастанию или null, если множество переполнено
+     */
+    @Nullable
+    public List<UUID> toList() {
+        if (this == OVERFLOW) {
+            return null;
+        }
+        if (mostSigBits.length == 0) {
+            return Collections.emptyList();
+        }
+        List<UUID> result = new ArrayList<>(mostSigBits.length);
+        for (int i = 0; i < mostSigBits.length; i++) {
+            result.add(new UUID(mostSigBits[i], leastSigBits[i]));
+        }
+        return result;
+    }
+
+    private static int compare(UUID first, UUID second) {
+        return compare(first.getMostSignificantBits(), first.getLeastSignificantBits(),
+            second.getMostSignificantBits(), second.getLeastSignificantBits());
+    }
+
+    private static int compare(long firstMost, long firstLeast, long secondMost, long secondLeast) {
+        int result = Long.compare(firstMost, secondMost);
+        return result != 0 ? result : Long.compare(firstLeast, secondLeast);
+    }
+
+    private static long[] trim(long[] array, int size) {
+        return size == array.length ? array : Arrays.copyOf(array, size);
+    }
+
+    @Override
+    public String toString() {
+        return this == OVERFLOW ? "EntityIdSet{overflow}" : "EntityIdSet{size: " + size() + '}';
+    }
+}
@@ -0,0 +1,107 @@
+package resto.push.statistic;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.db.Guid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Сборка статистики одного флаша в разрезе по классам
+ */
+public final class FlushStatisticAggregator {
+
+    private FlushStatisticAggregator() {
+    }
+
+    /**
+     * @param revision         - ревизия флаша
+     * @param createdIds       - id созданных объектов
+     * @param deletedIds       - id удаленных объектов
+     * @param updatedIds       - id измененных объектов
+     * @param classNameById    - имя класса объекта по его id
+     *
+     * @return атомарная статистика флаша
+     */
+    @NotNull
+    public static ChangeStatistic aggregate(
+        int revision,
+        @NotNull Collection<Guid> createdIds,
+        @NotNull Collection<Guid> deletedIds,
+        @NotNull Collection<Guid> updatedIds,
+        @NotNull Function<Guid, String> classNameById
+    ) {
+        return aggregate(revision, createdIds, deletedIds, updatedIds, classNameById, null, false);
+    }
+
+    /**
+     * @param dirtyFieldsById  - измененные поля обновленного объекта (null - поля неизвестны). Запрашиваются,
+     *                         только для классов, на поля которых есть подписки.
+     * @param collectEntityIds - собирать id объектов (есть подписчики, которым они нужны)
+     *
+     * @see #aggregate(int, Collection, Collection, Collection, Function)
+     */
+    @NotNull
+    public static ChangeStatistic aggregate(
+        int revision,
+        @NotNull Collection<Guid> createdIds,
+        @NotNull Collection<Guid> deletedIds,
+        @NotNull Collection<Guid> updatedIds,
+        @NotNull Function<Guid, String> classNameById,
+        @Nullable Function<Guid, Collection<String>> dirtyFieldsById,
+        boolean collectEntityIds
+    ) {
+        Map<String, ChangeStatisticItem> statisticHashMap = new HashMap<>();
+        Map<String, EntityIds> entityIds = collectEntityIds ? new HashMap<>() : null;
+        createdIds.forEach(id -> {
+            String className = classNameById.apply(id);
+            statisticHashMap.computeIfAbsent(className, ChangeStatisticItem::new).incCreated();
+            if (entityIds != null) {
+                entityIds.computeIfAbsent(className, name -> new EntityIds()).created.add(Guid.toUUID(id));
+            }
+        });
+        deletedIds.forEach(id -> {
+            String className = classNameById.apply(id);
+            statisticHashMap.computeIfAbsent(className, ChangeStatisticItem::new).incDeleted();
+            if (entityIds != null) {
+                entityIds.computeIfAbsent(className, name -> new EntityIds()).deleted.add(Guid.toUUID(id));
+            }
+        });
+        boolean trackFields = dirtyFieldsById != null && !ChangeFieldIndex.isEmpty();
+        updatedIds.forEach(id -> {
+            String className = classNameById.apply(id);
+            ChangeStatisticItem item = statisticHashMap.computeIfAbsent(className, ChangeStatisticItem::new);
+            if (trackFields && ChangeFieldIndex.hasFields(className)) {
+                item.incUpdated(ChangeFieldIndex.getChangeMask(className, dirtyFieldsById.apply(id)));
+            } else {
+                item.incUpdated();
+            }
+            if (entityIds != null) {
+                entityIds.computeIfAbsent(className, name -> new EntityIds()).updated.add(Guid.toUUID(id));
+            }
+        });
+        if (entityIds != null) {
+            entityIds.forEach((className, ids) -> statisticHashMap.get(className).setEntityIds(
+                EntityIdSet.of(ids.created), EntityIdSet.of(ids.updated), EntityIdSet.of(ids.deleted)));
+        }
+        return new ChangeStatistic(revision, statisticHashMap);
+    }
+
+    /**
+     * Id объектов класса, собранные за флаш
+     */
+    private static class EntityIds {
+
+        private final List<UUID> created = new ArrayList<>();
+
+        private final List<UUID> updated = new ArrayList<>();
+
+        private final List<UUID> deleted = new ArrayList<>();
+    }
+}
@@ -0,0 +1,61 @@
+package resto.push.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Формат файла трассы флашей.
+ * <p>
+ * Заголовок: {@link #MAGIC}, {@link #VERSION} (short), время начала записи (long, мс).
+ * Далее записи, каждая начинается с типа (byte):
+ * <ul>
+ * <li>{@link #CLASS_DEFINITION} - имя класса (UTF), получает следующий по порядку индекс;</li>
+ * <li>{@link #FLUSH} - ревизия, приращение времени от предыдущего флаша (мс, zigzag), время сборки
+ * статистики (нс), количество классов и для каждого индекс класса и количество созданных, измененных и удаленных
+ * объектов.</li>
+ * </ul>
+ * Целые числа после типа записи пишутся в формате varint.
+ */
+final class FlushTraceFormat {
+
+    static final int MAGIC = 0x52504654;
+
+    static final short VERSION = 1;
+
+    static final byte CLASS_DEFINITION = 1;
+
+    static final byte FLUSH = 2;
+
+    private FlushTraceFormat() {
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in flush trace");
+    }
+
+    static void writeZigZag(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readZigZag(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,99 @@
+package resto.push.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.statistic.ChangeStatisticItem;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Последовательное чтение трассы флашей
+ *
+ * @see FlushTraceFormat
+ */
+public class FlushTraceReader implements Closeable {
+
+    @NotNull
+    private final DataInputStream in;
+
+    private final List<String> classNames = new ArrayList<>();
+
+    private final long startMillis;
+
+    private long timestampMillis;
+
+    public FlushTraceReader(@NotNull Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != FlushTraceFormat.MAGIC) {
+            in.close();
+            throw new IOException("Not a flush trace: " + file);
+        }
+        short version = in.readShort();
+        if (version != FlushTraceFormat.VERSION) {
+            in.close();
+            throw new IOException("Unsupported flush trace version " + version + ": " + file);
+        }
+        startMillis = in.readLong();
+        timestampMillis = startMillis;
+    }
+
+    /**
+     * Время начала записи трассы
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return следующий флаш или null, если трасса закончилась. Недописанная последняя запись
+     * (трасса снята с работающего сервера) считается концом трассы.
+     */
+    @Nullable
+    public FlushTraceRecord next() throws IOException {
+        try {
+            while (true) {
+                byte type = in.readByte();
+                if (type == FlushTraceFormat.CLASS_DEFINITION) {
+                    classNames.add(in.readUTF());
+                } else if (type == FlushTraceFormat.FLUSH) {
+                    return readFlush();
+                } else {
+                    throw new IOException("Unknown flush trace record type " + type);
+                }
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private FlushTraceRecord readFlush() throws IOException {
+        int revision = (int) FlushTraceFormat.readVarLong(in);
+        timestampMillis += FlushTraceFormat.readZigZag(in);
+        long aggregationNanos = FlushTraceFormat.readVarLong(in);
+        int classCount = (int) FlushTraceFormat.readVarLong(in);
+        Map<String, ChangeStatisticItem> items = new HashMap<>(classCount * 2);
+        for (int i = 0; i < classCount; i++) {
+            String className = classNames.get((int) FlushTraceFormat.readVarLong(in));
+            int created = (int) FlushTraceFormat.readVarLong(in);
+            int updated = (int) FlushTraceFormat.readVarLong(in);
+            int deleted = (int) FlushTraceFormat.readVarLong(in);
+            items.put(className, new ChangeStatisticItem(className, created, updated, deleted));
+        }
+        return new FlushTraceRecord(revision, timestampMillis, aggregationNanos, items);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
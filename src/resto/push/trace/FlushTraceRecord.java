@@ -0,0 +1,73 @@
+package resto.push.trace;
+
+import org.jetbrains.annotations.NotNull;
+import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.ChangeStatisticItem;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Флаш, прочитанный из трассы
+ */
+public class FlushTraceRecord {
+
+    private final int revision;
+
+    /**
+     * Время флаша по часам сервера, где он был записан
+     */
+    private final long timestampMillis;
+
+    /**
+     * Сколько собиралась статистика флаша
+     */
+    private final long aggregationNanos;
+
+    @NotNull
+    private final Map<String, ChangeStatisticItem> classStatistics;
+
+    FlushTraceRecord(
+        int revision,
+        long timestampMillis,
+        long aggregationNanos,
+        @NotNull Map<String, ChangeStatisticItem> classStatistics
+    ) {
+        this.revision = revision;
+        this.timestampMillis = timestampMillis;
+        this.aggregationNanos = aggregationNanos;
+        this.classStatistics = Collections.unmodifiableMap(classStatistics);
+    }
+
+    public int getRevision() {
+        return revision;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public long getAggregationNanos() {
+        return aggregationNanos;
+    }
+
+    @NotNull
+    public Map<String, ChangeStatisticItem> getClassStatistics() {
+        return classStatistics;
+    }
+
+    /**
+     * Статистика флаша в том виде, в котором ее получают уведомители
+     */
+    @NotNull
+    public ChangeStatistic toStatistic() {
+        Map<String, ChangeStatisticItem> items = new HashMap<>();
+        classStatistics.forEach((className, item) -> items.put(className,
+            new ChangeStatisticItem(className, item.getCreated(), item.getUpdated(), item.getDeleted())));
+        ChangeStatistic statistic = new ChangeStatistic(revision, items);
+        long now = System.nanoTime();
+        statistic.setFlushTiming(now - aggregationNanos, now);
+        return statistic;
+    }
+}
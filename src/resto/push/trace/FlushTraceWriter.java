@@ -0,0 +1,205 @@
+package resto.push.trace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import resto.push.statistic.ChangeStatistic;
+import resto.push.statistic.ChangeStatisticItem;
+import resto.utils.log4j.RestoLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Запись потока флашей в трассу для последующего воспроизведения.
+ * <p>
+ * Поток флашей не ждет записи: статистика кладется в ограниченную очередь и пишется отдельным потоком.
+ * Если очередь переполнена, флаш в трассу не попадает (количество пропусков пишется в лог при закрытии).
+ * Запись прекращается при достижении максимального размера файла.
+ *
+ * @see FlushTraceFormat
+ * @see FlushTraceReader
+ */
+public class FlushTraceWriter implements Closeable {
+
+    private static final RestoLogger LOG = RestoLogger.getLogger(FlushTraceWriter.class);
+
+    /**
+     * Системное свойство с путем к файлу трассы. Если не задано, трасса не пишется.
+     */
+    public static final String FILE_PROPERTY = "resto.push.flushTrace.file";
+
+    /**
+     * Системное свойство с максимальным размером файла трассы в байтах
+     */
+    public static final String MAX_BYTES_PROPERTY = "resto.push.flushTrace.maxBytes";
+
+    private static final long DEFAULT_MAX_BYTES = 512L << 20;
+
+    private static final int QUEUE_CAPACITY = 10_000;
+
+    /**
+     * Признак остановки потока записи
+     */
+    private static final Entry END = new Entry(null, 0);
+
+    @NotNull
+    private final Path file;
+
+    private final long maxBytes;
+
+    @NotNull
+    private final DataOutputStream out;
+
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Индексы классов, уже описанных в трассе. Используется только потоком записи.
+     */
+    private final Map<String, Integer> classIndexes = new HashMap<>();
+
+    private final LongAdder dropped = new LongAdder();
+
+    @NotNull
+    private final Thread thread;
+
+    private long previousTimestampMillis;
+
+    private volatile boolean stopped;
+
+    public FlushTraceWriter(@NotNull Path file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        previousTimestampMillis = System.currentTimeMillis();
+        out.writeInt(FlushTraceFormat.MAGIC);
+        out.writeShort(FlushTraceFormat.VERSION);
+        out.writeLong(previousTimestampMillis);
+        thread = new Thread(this::writeLoop, "PushFlushTrace");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info.format("Flush trace capture started: %s, max bytes: %s", file, this.maxBytes);
+    }
+
+    /**
+     * Создает писателя по системным свойствам {@link #FILE_PROPERTY} и {@link #MAX_BYTES_PROPERTY}
+     *
+     * @return null, если запись трассы не включена или файл не удалось открыть
+     */
+    @Nullable
+    public static FlushTraceWriter fromSystemProperties() {
+        String fileName = System.getProperty(FILE_PROPERTY);
+        if (fileName == null || fileName.isEmpty()) {
+            return null;
+        }
+        try {
+            return new FlushTraceWriter(Paths.get(fileName), Long.getLong(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES));
+        } catch (IOException e) {
+            LOG.error.format(e, "Can't open flush trace file %s", fileName);
+            return null;
+        }
+    }
+
+    /**
+     * Ставит статистику флаша в очередь на запись
+     */
+    public void record(@NotNull ChangeStatistic statistic) {
+        if (stopped || !queue.offer(new Entry(statistic, System.currentTimeMillis()))) {
+            dropped.increment();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    // Очередь пуста - сбрасываем буфер, чтобы трасса на диске была полной на момент простоя
+                    out.flush();
+                    entry = queue.take();
+                }
+                if (entry == END) {
+                    break;
+                }
+                write(entry);
+                if (out.size() >= maxBytes) {
+                    LOG.warn.format("Flush trace %s reached max size %s bytes, capture stopped", file, maxBytes);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.error.format(e, "Can't write flush trace %s, capture stopped", file);
+        } finally {
+            stopped = true;
+            queue.clear();
+            try {
+                out.close();
+            } catch (IOException e) {
+                LOG.warn.format(e, "Can't close flush trace %s", file);
+            }
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        ChangeStatistic statistic = entry.statistic;
+        Map<String, ChangeStatisticItem> items = statistic.getClassStatistics();
+        for (String className : items.keySet()) {
+            if (!classIndexes.containsKey(className)) {
+                classIndexes.put(className, classIndexes.size());
+                out.writeByte(FlushTraceFormat.CLASS_DEFINITION);
+                out.writeUTF(className);
+            }
+        }
+        out.writeByte(FlushTraceFormat.FLUSH);
+        FlushTraceFormat.writeVarLong(out, statistic.getRevisionTo());
+        FlushTraceFormat.writeZigZag(out, entry.timestampMillis - previousTimestampMillis);
+        previousTimestampMillis = entry.timestampMillis;
+        FlushTraceFormat.writeVarLong(out, Math.max(0, statistic.getAggregatedNanos() - statistic.getFlushNanos()));
+        FlushTraceFormat.writeVarLong(out, items.size());
+        for (ChangeStatisticItem item : items.values()) {
+            FlushTraceFormat.writeVarLong(out, classIndexes.get(item.getEntityClassName()));
+            FlushTraceFormat.writeVarLong(out, item.getCreated());
+            FlushTraceFormat.writeVarLong(out, item.getUpdated());
+            FlushTraceFormat.writeVarLong(out, item.getDeleted());
+        }
+    }
+
+    /**
+     * Останавливает запись, дописывая уже поставленные в очередь флаши
+     */
+    @Override
+    public void close() {
+        if (!stopped) {
+            try {
+                queue.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOG.info.format("Flush trace capture finished: %s, dropped flushes: %s", file, dropped.sum());
+    }
+
+    private static class Entry {
+
+        private final ChangeStatistic statistic;
+
+        private final long timestampMillis;
+
+        private Entry(ChangeStatistic statistic, long timestampMillis) {
+            this.statistic = statistic;
+            this.timestampMillis = timestampMillis;
+        }
+    }
+}